@@ -0,0 +1,73 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: cost of getting a buffer to read into or queue echoed bytes in. Plain heap and direct
+ |allocation against a lease and release from the BufferPool
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo.benchmarks;
+
+import com.eaidesign.echo.BufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferAllocationBenchmark {
+
+    @Param({"512", "8192", "65536"})
+    int size;
+
+    private BufferPool bufferPool;
+
+    @Setup
+    public void setup(){
+        bufferPool = new BufferPool(16L * 1024 * 1024);
+    }
+
+    @Benchmark
+    public ByteBuffer allocateHeap(){
+        return ByteBuffer.allocate(size);
+    }
+
+    @Benchmark
+    public ByteBuffer allocateDirect(){
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    @Benchmark
+    public int poolLeaseAndRelease(){
+        ByteBuffer buffer = bufferPool.acquire(size);
+        int capacity = buffer.capacity();
+        bufferPool.release(buffer);
+        return capacity;
+    }
+}
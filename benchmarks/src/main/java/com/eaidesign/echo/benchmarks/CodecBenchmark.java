@@ -0,0 +1,116 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: cost of turning one read's bytes into the echo. The text path is the decode, toString
+ |and encode that read() and echo() do in text mode. The raw paths are the copies the binary echo
+ |makes of whatever a short write leaves behind, from a heap or a direct read buffer
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo.benchmarks;
+
+import com.eaidesign.echo.BufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"16", "256", "4096"})
+    int payloadBytes;
+
+    private ByteBuffer heapRead; //A read's worth of bytes in a heap buffer, as the server originally had
+    private ByteBuffer directRead; //The same bytes in a direct buffer, as the workers now read into
+    private CharsetDecoder decoder;
+    private CharsetEncoder encoder;
+    private BufferPool bufferPool;
+
+    @Setup
+    public void setup(){
+        Charset charset = Charset.defaultCharset();
+        decoder = charset.newDecoder();
+        encoder = charset.newEncoder();
+        bufferPool = new BufferPool(16L * 1024 * 1024);
+
+        heapRead = ByteBuffer.allocate(payloadBytes);
+        directRead = ByteBuffer.allocateDirect(payloadBytes);
+        for(int i = 0; i < payloadBytes; i++){
+            byte b = (byte) ('a' + i % 26);
+            heapRead.put(b);
+            directRead.put(b);
+        }
+        heapRead.flip();
+        directRead.flip();
+    }
+
+    /**
+     * The text echo: decode to a CharBuffer, make the String that gets logged, encode back to a new ByteBuffer
+     */
+    @Benchmark
+    public void textRoundTrip(Blackhole blackhole) throws CharacterCodingException{
+        heapRead.rewind();
+        CharBuffer charBuffer = decoder.decode(heapRead);
+        blackhole.consume(charBuffer.toString());
+        blackhole.consume(encoder.encode(charBuffer));
+    }
+
+    /**
+     * The binary echo's worst case: the whole read is copied from a heap buffer into a leased one
+     */
+    @Benchmark
+    public void rawCopyFromHeap(Blackhole blackhole){
+        heapRead.rewind();
+        ByteBuffer copy = bufferPool.acquire(heapRead.remaining());
+        copy.put(heapRead);
+        copy.flip();
+        blackhole.consume(copy);
+        bufferPool.release(copy);
+    }
+
+    /**
+     * Same as above from the direct read buffer the workers actually use
+     */
+    @Benchmark
+    public void rawCopyFromDirect(Blackhole blackhole){
+        directRead.rewind();
+        ByteBuffer copy = bufferPool.acquire(directRead.remaining());
+        copy.put(directRead);
+        copy.flip();
+        blackhole.consume(copy);
+        bufferPool.release(copy);
+    }
+}
@@ -0,0 +1,111 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: connection rate. Each operation is a whole short connection against a real EchoServer
+ |over loopback: connect, one byte echoed, reset. Several client threads at once make it an accept
+ |storm, run with and without SO_REUSEPORT listener sharding and with different accept batches.
+ |Closing with a reset leaves no TIME_WAIT behind, which would otherwise run the client out of
+ |ephemeral ports within seconds
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo.benchmarks;
+
+import com.eaidesign.echo.EchoConfig;
+import com.eaidesign.echo.EchoServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(value = 1, jvmArgs = {"-Decho.log.level=WARN"})
+public class ConnectionRateBenchmark {
+
+    @Param({"false", "true"})
+    boolean reusePort;
+
+    @Param({"1", "64"})
+    int acceptBatch;
+
+    private EchoServer server;
+    private InetSocketAddress address;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception{
+        EchoConfig config = new EchoConfig()
+                .setWorkers(Math.max(2, Runtime.getRuntime().availableProcessors()))
+                .setReusePort(reusePort)
+                .setAcceptBatch(acceptBatch)
+                .setBacklog(4096);
+        server = new EchoServer(InetAddress.getLoopbackAddress(), 0, config);
+        new Thread(server, "echo-acceptor").start();
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer(){
+        server.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Buffers {
+        final ByteBuffer request = ByteBuffer.allocateDirect(1);
+        final ByteBuffer response = ByteBuffer.allocateDirect(1);
+    }
+
+    @Benchmark
+    public int connectEchoClose(Buffers buffers) throws IOException{
+        SocketChannel socketChannel = SocketChannel.open(address);
+        try{
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            buffers.request.clear();
+            buffers.request.put((byte) 'x').flip();
+            socketChannel.write(buffers.request);
+
+            buffers.response.clear();
+            if(socketChannel.read(buffers.response) < 0){
+                throw new EOFException("Server closed the connection");
+            }
+            return buffers.response.position();
+        }finally{
+            socketChannel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            socketChannel.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: one full echo round trip through a real EchoServer over loopback, in the same JVM. A
+ |blocking client writes the payload and reads until all of it has come back
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo.benchmarks;
+
+import com.eaidesign.echo.EchoConfig;
+import com.eaidesign.echo.EchoServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Decho.log.level=WARN"})
+public class LoopbackEchoBenchmark {
+
+    @Param({"64", "1024", "16384", "65536"})
+    int payloadBytes;
+
+    private EchoServer server;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception{
+        server = new EchoServer(InetAddress.getLoopbackAddress(), 0, new EchoConfig().setWorkers(1));
+        new Thread(server, "echo-acceptor").start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer(){
+        server.shutdown();
+    }
+
+    /**
+     * One blocking connection per benchmark thread, opened once and reused for every round trip
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        SocketChannel socketChannel;
+        ByteBuffer request;
+        ByteBuffer response;
+
+        @Setup(Level.Trial)
+        public void connect(LoopbackEchoBenchmark benchmark) throws IOException{
+            socketChannel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    benchmark.server.getPort()));
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            request = ByteBuffer.allocateDirect(benchmark.payloadBytes);
+            for(int i = 0; i < benchmark.payloadBytes; i++){
+                request.put((byte) ('a' + i % 26));
+            }
+            request.flip();
+            response = ByteBuffer.allocateDirect(benchmark.payloadBytes);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException{
+            socketChannel.close();
+        }
+    }
+
+    @Benchmark
+    public int roundTrip(Client client) throws IOException{
+        client.request.rewind();
+        while(client.request.hasRemaining()){
+            client.socketChannel.write(client.request);
+        }
+
+        client.response.clear();
+        while(client.response.hasRemaining()){
+            if(client.socketChannel.read(client.response) < 0){
+                throw new EOFException("Server closed the connection");
+            }
+        }
+        return client.response.position();
+    }
+}
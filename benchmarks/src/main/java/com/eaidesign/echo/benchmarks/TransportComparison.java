@@ -0,0 +1,209 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: the selector, blocking and async transports at 10k, 50k and 100k connections under the
+ |same load. Not a JMH benchmark, each run is one server in this JVM driven by the load client in a
+ |child JVM so the server's memory and threads can be sampled without the client's mixed in. Run with
+ |  java -cp benchmarks/target/benchmarks.jar com.eaidesign.echo.benchmarks.TransportComparison
+ |The open file limit has to cover both ends(ulimit -n above twice the connections) and the
+ |blocking transport on platform threads needs the thread limits to match
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Async transport included by default
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo.benchmarks;
+
+import com.eaidesign.echo.EchoConfig;
+import com.eaidesign.echo.EchoTransport;
+import com.eaidesign.echo.Transport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+public class TransportComparison {
+
+    private static final int CONNECTIONS_PER_ADDRESS = 20000; //Comfortably inside the default ephemeral port range
+
+    private final String[] transports = System.getProperty("echo.compare.transports", "selector,blocking,async").split(",");
+    private final String[] connectionCounts = System.getProperty("echo.compare.connections", "10000,50000,100000").split(",");
+    private final int payloadBytes = Integer.getInteger("echo.load.payload", 64);
+    private final long rate = Long.getLong("echo.load.rate", 0L); //Across all connections, 0 = flat out
+    private final int duration = Integer.getInteger("echo.load.duration", 20); //Seconds of load per run
+    private final String clientHeap = System.getProperty("echo.compare.clientHeap", "2g");
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final BufferPoolMXBean direct = directPool();
+
+    public static void main(String args[]) throws Exception{
+        //Per connection logging would swamp the numbers. Log reads its level once, so this has to come first
+        if(System.getProperty("echo.log.level") == null){
+            System.setProperty("echo.log.level", "WARN");
+        }
+        new TransportComparison().runAll();
+    }
+
+    private void runAll() throws Exception{
+        List<String> results = new ArrayList<String>();
+        for(String connections : connectionCounts){
+            for(String transport : transports){
+                results.add(run(Transport.parse(transport), Integer.parseInt(connections.trim())));
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-9s %7s %12s %9s %9s %10s %10s %8s",
+                "transport", "conns", "requests/s", "p99 us", "p99.9 us", "heap MB", "direct MB", "threads"));
+        for(String result : results){
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * One transport at one connection count. Heap, direct memory and live threads are sampled every 100 ms for the
+     * whole run and the peaks reported, since it's the cost of holding the connections open that differs most
+     */
+    private String run(Transport transport, int connections) throws Exception{
+        System.gc();
+        EchoConfig config = new EchoConfig().setTransport(transport).setMetricsIntervalSeconds(0);
+        EchoTransport server = transport.newServer(null, 0, config);
+        Thread acceptor = new Thread(server, "echo-acceptor");
+        acceptor.start();
+
+        long baseHeap = memory.getHeapMemoryUsage().getUsed();
+        long baseDirect = direct == null ? 0 : direct.getMemoryUsed();
+        long peakHeap = 0;
+        long peakDirect = 0;
+        int peakThreads = 0;
+        String summary = null;
+
+        Process client = startClient(server.getPort(), connections);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+        try{
+            while(true){
+                while(reader.ready()){
+                    String line = reader.readLine();
+                    if(line == null){
+                        break;
+                    }
+                    if(line.startsWith("SUMMARY ")){
+                        summary = line.substring("SUMMARY ".length());
+                    }
+                }
+
+                peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed() - baseHeap);
+                peakDirect = Math.max(peakDirect, (direct == null ? 0 : direct.getMemoryUsed()) - baseDirect);
+                peakThreads = Math.max(peakThreads, threads.getThreadCount());
+
+                if(client.waitFor(100, TimeUnit.MILLISECONDS)){
+                    String line;
+                    while((line = reader.readLine()) != null){
+                        if(line.startsWith("SUMMARY ")){
+                            summary = line.substring("SUMMARY ".length());
+                        }
+                    }
+                    break;
+                }
+            }
+        }finally{
+            client.destroy();
+            server.shutdown();
+            acceptor.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        String name = transport.name().toLowerCase(Locale.ROOT);
+        if(summary == null){
+            System.out.println("RESULT {\"transport\":\"" + name + "\",\"connections\":" + connections
+                    + ",\"error\":\"client exited with " + client.exitValue() + " and no summary\"}");
+            return String.format(Locale.ROOT, "%-9s %7d %12s", name, connections, "failed");
+        }
+
+        double throughput = number(summary, "throughput");
+        double p99 = number(summary, "p99Us");
+        double p999 = number(summary, "p999Us");
+        System.out.println(String.format(Locale.ROOT,
+                "RESULT {\"transport\":\"%s\",\"connections\":%d,\"peakHeapBytes\":%d,\"peakDirectBytes\":%d,"
+                        + "\"peakThreads\":%d,\"client\":%s}",
+                name, connections, peakHeap, peakDirect, peakThreads, summary));
+        return String.format(Locale.ROOT, "%-9s %7d %12.0f %9.1f %9.1f %10.1f %10.1f %8d", name, connections,
+                throughput, p99, p999, peakHeap / 1048576.0, peakDirect / 1048576.0, peakThreads);
+    }
+
+    /**
+     * The load client from the echo module in its own JVM, off this JVM's class path. Connections are spread over
+     * enough loopback addresses that none of them runs out of ephemeral ports
+     */
+    private Process startClient(int port, int connections) throws IOException{
+        StringBuilder bindAddresses = new StringBuilder();
+        int addresses = (connections + CONNECTIONS_PER_ADDRESS - 1) / CONNECTIONS_PER_ADDRESS;
+        for(int i = 1; i <= addresses; i++){
+            bindAddresses.append(i > 1 ? "," : "").append("127.0.0.").append(i);
+        }
+
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Xmx" + clientHeap);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Decho.log.level=WARN");
+        command.add("-Decho.load=true");
+        command.add("-Decho.port=" + port);
+        command.add("-Decho.load.connections=" + connections);
+        command.add("-Decho.load.bindAddresses=" + bindAddresses);
+        command.add("-Decho.load.payload=" + payloadBytes);
+        command.add("-Decho.load.rate=" + rate);
+        command.add("-Decho.load.duration=" + duration);
+        command.add("-Decho.client.pipeline=1");
+        command.add("-Decho.framing=fixed");
+        command.add("com.eaidesign.echo.EchoClient");
+
+        System.out.println("Running " + connections + " connections...");
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    /**
+     * Pulls one number out of the client's flat SUMMARY json without needing a parser
+     */
+    private static double number(String json, String field){
+        int start = json.indexOf("\"" + field + "\":");
+        if(start < 0){
+            return Double.NaN;
+        }
+        start += field.length() + 3;
+        int end = start;
+        while(end < json.length() && "-0123456789.eE".indexOf(json.charAt(end)) >= 0){
+            end++;
+        }
+        return Double.parseDouble(json.substring(start, end));
+    }
+
+    private static BufferPoolMXBean directPool(){
+        for(BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)){
+            if("direct".equals(pool.getName())){
+                return pool;
+            }
+        }
+        return null;
+    }
+}
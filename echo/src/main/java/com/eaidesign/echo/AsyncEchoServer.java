@@ -0,0 +1,186 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: the Echo Server on NIO.2 completion handlers. Accepts, reads and writes are all started
+ |asynchronously on an AsynchronousServerSocketChannel and finished on the threads of a fixed size
+ |AsynchronousChannelGroup. On Linux the group still sits on epoll underneath, the difference from
+ |EchoServer is who owns the loop and how the work is spread over the threads
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Listen backlog and connection limit
+ 1.2  - 10182026 - Stripe picked atomically, one shared slab backed pool per stripe in place of one per connection
+ 1.3  - 10182026 - A failed accept is issued again after the accept backoff, not straight away
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncEchoServer implements EchoTransport {
+
+    private final EchoConfig config; //Tunables for this server
+    private final EchoMetrics metrics; //Counters shared by every group thread
+    private final AsynchronousChannelGroup group; //Runs every completion handler for this server's channels
+    private final AsynchronousServerSocketChannel serverChannel; //The listener, always with one accept in flight
+    private final ScheduledExecutorService acceptBackoff; //Issues the next accept once a failed one has waited its backoff
+    private final Runnable acceptAgain; //Made up front, loading a class while out of file descriptors can fail too
+    private final AtomicHistogram[] latency; //One stripe per group thread, connections are spread over them
+    private final SharedBufferPool[] bufferPools; //Direct buffers for each stripe's connections, same spread
+    //The next accept is in flight before this one is dealt with, so two accept handlers can run at once
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private volatile boolean running = true; //Cleared by shutdown()
+
+    private final CompletionHandler<AsynchronousSocketChannel, Void> acceptCompleted =
+            new CompletionHandler<AsynchronousSocketChannel, Void>(){
+                public void completed(AsynchronousSocketChannel socketChannel, Void attachment){
+                    serverChannel.accept(null, this); //Next accept goes out before this one is dealt with
+                    accept(socketChannel);
+                }
+
+                public void failed(Throwable t, Void attachment){
+                    if(!running || t instanceof AsynchronousCloseException){
+                        return;
+                    }
+                    //Out of file descriptors most likely. Accepting again at once would only fail again, round and round
+                    //on the group's threads, so the next accept waits out the backoff
+                    Log.warn("Accept failed, pausing accepts for {} ms: {}", config.getAcceptBackoffMillis(), t);
+                    try{
+                        acceptBackoff.schedule(acceptAgain, config.getAcceptBackoffMillis(), TimeUnit.MILLISECONDS);
+                    }catch(RejectedExecutionException re){
+                        //shutdown() got there first
+                    }
+                }
+            };
+
+    public AsyncEchoServer(InetAddress hostAddress, int port, EchoConfig config) throws IOException{
+        this.config = config;
+        this.metrics = new EchoMetrics(config);
+        this.latency = new AtomicHistogram[config.getAsyncThreads()];
+        this.bufferPools = new SharedBufferPool[config.getAsyncThreads()];
+        for(int i = 0; i < latency.length; i++){
+            latency[i] = metrics.newLatencyStripe();
+            bufferPools[i] = new SharedBufferPool(config.getPoolMaxBytes());
+            metrics.addBufferPool(bufferPools[i]);
+        }
+
+        this.acceptBackoff = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread thread = new Thread(r, "echo-async-accept-backoff");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.acceptAgain = new Runnable(){
+            public void run(){
+                if(running){
+                    serverChannel.accept(null, acceptCompleted);
+                }
+            }
+        };
+
+        final AtomicInteger count = new AtomicInteger();
+        this.group = AsynchronousChannelGroup.withFixedThreadPool(config.getAsyncThreads(), new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread thread = new Thread(r, "echo-async-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        //Same loopback binding as the selector server
+        InetSocketAddress inetSockAddr = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        this.serverChannel = AsynchronousServerSocketChannel.open(group);
+        serverChannel.bind(inetSockAddr, config.getBacklog());
+        Log.info("Async Echo Server initialized on {} with {} threads...", inetSockAddr, config.getAsyncThreads());
+    }
+
+    /**
+     * Puts the first accept in flight and then just waits, the group's threads do everything else
+     */
+    public void run(){
+        metrics.start(getPort());
+        serverChannel.accept(null, acceptCompleted);
+        Log.info("Waiting for connections...");
+
+        try{
+            while(!group.awaitTermination(1, TimeUnit.SECONDS)){
+                //Nothing to do but wait for shutdown()
+            }
+        }catch(InterruptedException ie){
+            Thread.currentThread().interrupt();
+        }
+
+        metrics.stop();
+        Log.info("Async Echo Server stopped");
+    }
+
+    /**
+     * Each connection gets its own handler and shares its stripe's pool. Its operations finish on whichever group
+     * thread is free, which is why the pool has to be a shared one
+     */
+    private void accept(AsynchronousSocketChannel socketChannel){
+        if(!EchoServer.admit(socketChannel, config, metrics)){
+            return;
+        }
+
+        if(Log.isDebugEnabled()){
+            try{
+                Log.debug("Received an incoming connection from {}", socketChannel.getRemoteAddress());
+            }catch(IOException ignored){
+            }
+        }
+
+        int stripe = (nextStripe.getAndIncrement() & Integer.MAX_VALUE) % latency.length; //Stays positive past overflow
+
+        new AsyncSession(socketChannel, new DefaultEchoHandler(config), latency[stripe], config, bufferPools[stripe],
+                metrics).start();
+    }
+
+    public int getPort(){
+        try{
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        }catch(IOException ie){
+            return -1;
+        }
+    }
+
+    public EchoMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Shuts the group down, which closes the listener and every connection in it
+     */
+    public void shutdown(){
+        running = false;
+        acceptBackoff.shutdownNow();
+        try{
+            group.shutdownNow();
+        }catch(IOException ie){
+            Log.warn("Error shutting down the channel group", ie);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: one connection of the completion based transport. Keeps exactly one operation in flight
+ |at a time, a read or a write, so its state is only ever touched by one completion handler at once
+ |even though those run on whichever thread of the channel group is free. A read is only issued again
+ |once everything it produced has been written, which is this transport's backpressure
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+
+public class AsyncSession extends EchoSession {
+
+    private final AsynchronousSocketChannel socketChannel; //The client's channel
+    private final EchoHandler handler; //This connection's own, it may run on a different thread every time
+    private final AtomicHistogram latency; //The stripe of the processing latency histogram this connection records into
+    private final ByteBuffer readBuffer; //This connection's own, leased from its pool
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>(); //Echoes waiting to be written, oldest first
+
+    //Completion handlers are created once per connection rather than once per operation
+    private final CompletionHandler<Integer, Void> readCompleted = new CompletionHandler<Integer, Void>(){
+        public void completed(Integer bytesRead, Void attachment){
+            onReadCompleted(bytesRead);
+        }
+
+        public void failed(Throwable t, Void attachment){
+            onFailed(t);
+        }
+    };
+
+    private final CompletionHandler<Integer, Void> writeCompleted = new CompletionHandler<Integer, Void>(){
+        public void completed(Integer written, Void attachment){
+            onWriteCompleted(written);
+        }
+
+        public void failed(Throwable t, Void attachment){
+            onFailed(t);
+        }
+    };
+
+    public AsyncSession(AsynchronousSocketChannel socketChannel, EchoHandler handler, AtomicHistogram latency,
+                        EchoConfig config, BufferPool bufferPool, EchoMetrics metrics){
+        super(bufferPool, metrics);
+        this.socketChannel = socketChannel;
+        this.handler = handler;
+        this.latency = latency;
+        this.readBuffer = bufferPool.acquire(config.getReadBufferBytes());
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress(){
+        try{
+            return socketChannel.getRemoteAddress();
+        }catch(IOException ie){
+            return null;
+        }
+    }
+
+    /**
+     * Starts the first read. Everything after that is driven by the completion handlers
+     */
+    public void start(){
+        read();
+    }
+
+    private void read(){
+        readBuffer.clear();
+        socketChannel.read(readBuffer, null, readCompleted);
+    }
+
+    private void onReadCompleted(int bytesRead){
+        if(bytesRead == -1){
+            if(Log.isDebugEnabled()){
+                Log.debug("logout: {}. The remote connection has cleanly shut down. The server is doing the same.",
+                        getRemoteAddress());
+            }
+            close();
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        readBuffer.flip();
+        metrics.bytesIn.add(bytesRead);
+
+        try{
+            handler.onRead(this, readBuffer);
+        }catch(IOException ie){
+            onFailed(ie);
+            return;
+        }
+
+        metrics.messages.increment();
+        latency.recordValue(System.nanoTime() - startNanos);
+
+        if(outbound.isEmpty()){
+            read();
+        }else{
+            write();
+        }
+    }
+
+    private void write(){
+        socketChannel.write(outbound.peekFirst(), null, writeCompleted);
+    }
+
+    private void onWriteCompleted(int written){
+        metrics.bytesOut.add(written);
+
+        ByteBuffer head = outbound.peekFirst();
+        if(head.hasRemaining()){
+            metrics.partialWrites.increment();
+        }else{
+            outbound.pollFirst();
+            bufferPool.release(head);
+        }
+
+        if(outbound.isEmpty()){
+            read();
+        }else{
+            write();
+        }
+    }
+
+    private void onFailed(Throwable t){
+        if(!(t instanceof AsynchronousCloseException) && Log.isDebugEnabled()){
+            Log.debug("Closing connection after I/O error: {}", t);
+        }
+        close();
+    }
+
+    /**
+     * Nothing can be written until the handler returns and the read that called it is finished with, so the bytes
+     * are always copied. Onto the end of the last queued buffer when they fit, else into a newly leased one
+     */
+    @Override
+    public void send(ByteBuffer buffer){
+        ByteBuffer tail = outbound.peekLast();
+        if(tail != null && tail.capacity() - tail.limit() >= buffer.remaining()){
+            int position = tail.position();
+            tail.position(tail.limit());
+            tail.limit(tail.capacity());
+            tail.put(buffer);
+            tail.limit(tail.position());
+            tail.position(position);
+            return;
+        }
+
+        ByteBuffer copy = bufferPool.acquire(buffer.remaining());
+        copy.put(buffer);
+        copy.flip();
+        outbound.addLast(copy);
+    }
+
+    @Override
+    public void enqueue(ByteBuffer buffer){
+        if(!buffer.hasRemaining()){
+            bufferPool.release(buffer);
+            return;
+        }
+        outbound.addLast(buffer);
+    }
+
+    /**
+     * Writing starts by itself once the handler returns, so all this can say is whether anything is still waiting
+     */
+    @Override
+    public boolean flush(){
+        return outbound.isEmpty();
+    }
+
+    @Override
+    protected void closeTransport(){
+        ByteBuffer buffer;
+        while((buffer = outbound.pollFirst()) != null){
+            bufferPool.release(buffer);
+        }
+        bufferPool.release(readBuffer);
+        try{
+            socketChannel.close();
+        }catch(IOException ie){
+            Log.debug("Error closing channel: {}", ie);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: the same buckets as Histogram but with atomic counts, so one thread can record while
+ |another takes snapshots without any locking. Each worker records into its own instance so the
+ |counts are never contended
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class AtomicHistogram {
+
+    private final long highestTrackableValue; //Anything bigger is counted as this
+    private final AtomicLongArray counts;
+
+    public AtomicHistogram(long highestTrackableValue){
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new AtomicLongArray(Histogram.indexFor(highestTrackableValue) + 1);
+    }
+
+    public void recordValue(long value){
+        if(value < 0){
+            value = 0;
+        }
+        if(value > highestTrackableValue){
+            value = highestTrackableValue;
+        }
+        counts.incrementAndGet(Histogram.indexFor(value));
+    }
+
+    /**
+     * Adds everything recorded so far into the given histogram, which must have the same highest trackable value.
+     * When reset is true each bucket is emptied as it is read, so nothing recorded meanwhile is lost or counted twice.
+     * Values come back at their bucket's highest value, within the histogram's precision
+     */
+    public void addTo(Histogram histogram, boolean reset){
+        for(int i = 0; i < counts.length(); i++){
+            long count = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            if(count > 0){
+                histogram.recordValueWithCount(Histogram.highestValueAt(i), count);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: the Echo Server written the plain way. One blocking accept loop and one thread per
+ |connection that reads, hands the bytes to the same EchoHandler the selector loops use and blocks
+ |writing the echo. On a JVM with virtual threads each connection gets one, which is what makes a
+ |thread per connection affordable at tens of thousands of connections. Elsewhere it falls back to
+ |platform threads with small stacks
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Listen backlog and connection limit
+ 1.2  - 10182026 - A failed accept waits out the accept backoff instead of retrying straight away
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BlockingEchoServer implements EchoTransport {
+
+    private static final int LATENCY_STRIPES = 16; //Connections record into these round robin rather than one each
+
+    private final EchoConfig config; //Tunables for this server
+    private final EchoMetrics metrics; //Counters shared by every connection thread
+    private final ServerSocketChannel serverChannel; //Blocking listener, only the acceptor thread calls accept()
+    private final AtomicHistogram[] latency; //Striped processing latency, see LATENCY_STRIPES
+    private final ThreadFactory threadFactory; //Virtual threads if the JVM has them
+    private final Set<SocketChannel> channels = Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>()); //Open connections, for shutdown()
+    private final AtomicLong nextId = new AtomicLong(); //Numbers connection threads
+    private volatile boolean running = true; //Cleared by shutdown()
+
+    public BlockingEchoServer(InetAddress hostAddress, int port, EchoConfig config) throws IOException{
+        this.config = config;
+        this.metrics = new EchoMetrics(config);
+        this.latency = new AtomicHistogram[LATENCY_STRIPES];
+        for(int i = 0; i < latency.length; i++){
+            latency[i] = metrics.newLatencyStripe();
+        }
+        this.threadFactory = newThreadFactory(config);
+
+        //Same loopback binding as the selector server
+        InetSocketAddress inetSockAddr = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(inetSockAddr, config.getBacklog());
+        Log.info("Blocking Echo Server initialized on {}...", inetSockAddr);
+    }
+
+    /**
+     * Thread.ofVirtual() only exists from Java 21 on and this code is built for Java 8, so it is looked up by
+     * reflection. Any failure, including a JVM where virtual threads are still a preview feature, means platform
+     * threads with the configured stack size instead
+     */
+    static ThreadFactory newThreadFactory(EchoConfig config){
+        if(config.isVirtualThreads()){
+            try{
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "echo-conn-", 0L);
+                ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                Log.info("Blocking transport running connections on virtual threads");
+                return factory;
+            }catch(Exception e){
+                Log.warn("Virtual threads are not available on Java {}, using platform threads",
+                        System.getProperty("java.version"));
+            }
+        }
+
+        final long stackBytes = config.getThreadStackBytes();
+        final AtomicLong count = new AtomicLong();
+        return new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread thread = new Thread(null, r, "echo-conn-" + count.getAndIncrement(), stackBytes);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Accepts until shutdown(), starting a thread for every connection
+     */
+    public void run(){
+        metrics.start(getPort());
+        Log.info("Waiting for connections...");
+
+        while(running){
+            final SocketChannel socketChannel;
+            try{
+                socketChannel = serverChannel.accept();
+            }catch(ClosedChannelException ce){
+                break; //shutdown()
+            }catch(IOException ie){
+                //Out of file descriptors most likely. The connection stays queued and accept() would fail again at
+                //once, so wait like the selector transport does rather than spin and flood the log
+                Log.warn("Accept failed, pausing accepts for {} ms: {}", config.getAcceptBackoffMillis(), ie);
+                try{
+                    Thread.sleep(config.getAcceptBackoffMillis());
+                }catch(InterruptedException interrupted){
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            if(!EchoServer.admit(socketChannel, config, metrics)){
+                continue;
+            }
+
+            if(Log.isDebugEnabled()){
+                Log.debug("Received an incoming connection from {}", socketChannel.socket().getRemoteSocketAddress());
+            }
+
+            final AtomicHistogram stripe = latency[(int) (nextId.getAndIncrement() % latency.length)];
+            channels.add(socketChannel);
+            try{
+                threadFactory.newThread(new Runnable(){
+                    public void run(){
+                        serve(socketChannel, stripe);
+                    }
+                }).start();
+            }catch(Throwable t){
+                //Out of threads or memory for stacks. Drop this one and keep accepting
+                Log.error("Could not start a connection thread", t);
+                channels.remove(socketChannel);
+                metrics.closed.increment();
+                try{
+                    socketChannel.close();
+                }catch(IOException ignored){
+                }
+            }
+        }
+
+        metrics.stop();
+        Log.info("Blocking Echo Server stopped");
+    }
+
+    /**
+     * One connection's whole life. The session's pool carves buffers one at a time so an idle connection costs its
+     * read buffer and its thread and nothing more
+     */
+    private void serve(SocketChannel socketChannel, AtomicHistogram stripe){
+        BufferPool bufferPool = new BufferPool(config.getPoolMaxBytes(), 0);
+        BlockingSession session = new BlockingSession(socketChannel, bufferPool, metrics);
+        EchoHandler handler = new DefaultEchoHandler(config);
+        ByteBuffer readBuffer = bufferPool.acquire(config.getReadBufferBytes());
+
+        try{
+            while(true){
+                readBuffer.clear();
+                int bytesRead = socketChannel.read(readBuffer);
+                if(bytesRead == -1){
+                    if(Log.isDebugEnabled()){
+                        Log.debug("logout: {}. The remote connection has cleanly shut down. The server is doing the same.",
+                                session.getRemoteAddress());
+                    }
+                    break;
+                }
+
+                //Timed from when the bytes are in hand, a blocked read is waiting on the client not the server
+                long startNanos = System.nanoTime();
+                readBuffer.flip();
+                metrics.bytesIn.add(bytesRead);
+
+                handler.onRead(session, readBuffer);
+
+                metrics.messages.increment();
+                stripe.recordValue(System.nanoTime() - startNanos);
+            }
+        }catch(IOException ie){
+            if(running){
+                Log.debug("Closing connection after I/O error: {}", ie);
+            }
+        }catch(RuntimeException re){
+            Log.error("Connection thread failed", re);
+        }finally{
+            channels.remove(socketChannel);
+            session.close();
+        }
+    }
+
+    public int getPort(){
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public EchoMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Closes the listener, which ends the accept loop, and every open channel, which makes each connection thread's
+     * blocked read throw and the thread clean up after itself
+     */
+    public void shutdown(){
+        running = false;
+        try{
+            serverChannel.close();
+        }catch(IOException ie){
+            Log.warn("Error closing the listener", ie);
+        }
+        for(SocketChannel socketChannel : channels){
+            try{
+                socketChannel.close();
+            }catch(IOException ignored){
+            }
+        }
+    }
+}
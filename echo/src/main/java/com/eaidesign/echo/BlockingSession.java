@@ -0,0 +1,100 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: one connection of the blocking transport. Only ever touched by the connection's own
+ |thread, which blocks in write() until the client has taken everything, so there is no outbound
+ |queue to speak of and the kernel's send buffer provides the backpressure
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+public class BlockingSession extends EchoSession {
+
+    private final SocketChannel socketChannel; //The client's channel, in blocking mode
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>(); //Enqueued since the last flush()
+
+    public BlockingSession(SocketChannel socketChannel, BufferPool bufferPool, EchoMetrics metrics){
+        super(bufferPool, metrics);
+        this.socketChannel = socketChannel;
+    }
+
+    public SocketChannel getSocketChannel(){
+        return socketChannel;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress(){
+        return socketChannel.socket().getRemoteSocketAddress();
+    }
+
+    /**
+     * Writes everything before returning. A blocking channel only comes back early once the send buffer filled and
+     * drained again, which is counted as a partial write the same as on the selector transport
+     */
+    @Override
+    public void send(ByteBuffer buffer) throws IOException{
+        flush(); //Anything enqueued goes first
+        writeFully(buffer);
+    }
+
+    @Override
+    public void enqueue(ByteBuffer buffer){
+        pending.addLast(buffer);
+    }
+
+    /**
+     * Writes and releases everything enqueued. Always true, it blocks until done or throws
+     */
+    @Override
+    public boolean flush() throws IOException{
+        ByteBuffer buffer;
+        while((buffer = pending.peekFirst()) != null){
+            writeFully(buffer);
+            pending.pollFirst();
+            bufferPool.release(buffer);
+        }
+        return true;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException{
+        while(buffer.hasRemaining()){
+            int remaining = buffer.remaining();
+            int written = socketChannel.write(buffer);
+            metrics.bytesOut.add(written);
+            if(written < remaining){
+                metrics.partialWrites.increment();
+            }
+        }
+    }
+
+    @Override
+    protected void closeTransport(){
+        ByteBuffer buffer;
+        while((buffer = pending.pollFirst()) != null){
+            bufferPool.release(buffer);
+        }
+        try{
+            socketChannel.close();
+        }catch(IOException ie){
+            Log.debug("Error closing channel: {}", ie);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: one message on its way to every member of a room. The bytes are encoded once into a
+ |buffer from the sender's worker and each member queues a read-only view of it, so fanning out to
+ |thousands of members copies nothing. Reference counted, the buffer goes back to the sender's
+ |worker once the last member has written its view
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Broadcast {
+
+    private final String room; //Who it goes to
+    private final ByteBuffer payload; //Leased from the owner's BufferPool. Never written to once published
+    private final EchoWorker owner; //The worker whose pool the payload came from
+    private final AtomicInteger refs = new AtomicInteger(1); //The publisher's own reference to start with
+
+    /**
+     * @param payload framed and encoded exactly as each member should receive it, position to limit
+     */
+    public Broadcast(String room, ByteBuffer payload, EchoWorker owner){
+        this.room = room;
+        this.payload = payload;
+        this.owner = owner;
+    }
+
+    public String getRoom(){
+        return room;
+    }
+
+    public int size(){
+        return payload.remaining();
+    }
+
+    /**
+     * A view with its own position and limit over the same bytes, for one member's outbound queue. A direct payload
+     * is written to the socket straight from its memory, a heap one(pool overflow) is copied by the JDK on each write
+     */
+    ByteBuffer view(){
+        return payload.asReadOnlyBuffer();
+    }
+
+    /**
+     * Taken once per worker for all of its members together, the unused part is handed back after the fan out
+     */
+    void retain(int count){
+        refs.addAndGet(count);
+    }
+
+    void release(){
+        release(1);
+    }
+
+    /**
+     * Drops references. The last one out hands the payload back to its owner, which may be another worker's thread
+     */
+    void release(int count){
+        if(count > 0 && refs.addAndGet(-count) == 0){
+            owner.recycle(payload);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: broadcast mode for the selector transport. Every message a connection sends goes to
+ |every member of its room, the sender included, instead of back to the sender alone. A message
+ |starting with "/join " moves the sender to the named room. Messages are frames when framing is
+ |on, otherwise whatever one read returned
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class BroadcastHandler extends DefaultEchoHandler {
+
+    private static final byte[] JOIN = "/join ".getBytes(StandardCharsets.US_ASCII);
+
+    private final EchoWorker worker; //The worker this handler runs on, owner of the buffers it publishes
+    private final Rooms rooms;
+
+    public BroadcastHandler(EchoConfig config, EchoWorker worker, Rooms rooms){
+        super(config);
+        this.worker = worker;
+        this.rooms = rooms;
+    }
+
+    @Override
+    public void onRead(EchoSession session, ByteBuffer in) throws IOException{
+        EchoConnection connection = (EchoConnection) session;
+        Framing framing = config.getFraming();
+
+        if(framing == Framing.NONE){
+            message(connection, in, in);
+            return;
+        }
+
+        //Same frame walk as the echo, except each frame is published on its own. The sender is a member of its own
+        //room, so a failed write to it while publishing can close it partway through
+        in = session.joinPartialFrame(in);
+        while(!connection.isClosed()){
+            int frameStart = in.position();
+            int payloadLength = framing.readHeader(in);
+            if(payloadLength < 0){
+                break; //Header not all here yet
+            }
+            if(payloadLength > config.getMaxFrameBytes()){
+                throw new ProtocolException("Frame of " + payloadLength + " bytes is over the limit of "
+                        + config.getMaxFrameBytes());
+            }
+            if(in.remaining() < payloadLength){
+                in.position(frameStart); //Payload not all here yet, keep the header with it
+                break;
+            }
+
+            ByteBuffer frame = in.duplicate();
+            frame.limit(in.position() + payloadLength);
+            frame.position(frameStart);
+            ByteBuffer payload = in.duplicate();
+            payload.limit(frame.limit());
+            in.position(frame.limit());
+
+            message(connection, frame, payload);
+        }
+        if(!connection.isClosed()){
+            session.holdPartialFrame(in);
+        }
+    }
+
+    /**
+     * One message. It is copied or encoded exactly once, into a buffer from this worker's pool, and that one buffer is
+     * what every member of the room is sent
+     *
+     * @param frame   the message as it arrived, header and all
+     * @param payload just the message's bytes
+     */
+    private void message(EchoConnection connection, ByteBuffer frame, ByteBuffer payload) throws IOException{
+        if(startsWith(payload, JOIN)){
+            payload.position(payload.position() + JOIN.length);
+            worker.join(connection, StandardCharsets.US_ASCII.decode(payload).toString().trim());
+            return;
+        }
+
+        MessageInspector inspector = config.getInspector();
+        ByteBuffer encoded;
+        if(config.isBinary()){
+            if(inspector != null){
+                inspector.inspect(connection, decode(connection, payload));
+            }
+            encoded = connection.getBufferPool().acquire(frame.remaining());
+            encoded.put(frame.duplicate());
+            encoded.flip();
+        }else{
+            CharBuffer charBuffer = decode(connection, payload);
+            if(inspector != null){
+                inspector.inspect(connection, charBuffer.duplicate());
+            }
+            encoded = encode(connection, charBuffer);
+        }
+
+        if(Log.isTraceEnabled()){
+            Log.trace("Broadcasting {} bytes to room {}", encoded.remaining(), connection.getRoom());
+        }
+        rooms.publish(new Broadcast(connection.getRoom(), encoded, worker), worker);
+    }
+
+    private CharBuffer decode(EchoSession session, ByteBuffer payload) throws IOException{
+        return config.getFraming() == Framing.NONE ? session.decode(payload) : session.decodeFrame(payload);
+    }
+
+    private static boolean startsWith(ByteBuffer payload, byte[] prefix){
+        if(payload.remaining() < prefix.length){
+            return false;
+        }
+        for(int i = 0; i < prefix.length; i++){
+            if(payload.get(payload.position() + i) != prefix[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,192 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: a pool of direct ByteBuffers in a few fixed size classes. Buffers are carved out of
+ |larger direct slabs so the JDK doesn't have to copy through a temporary direct buffer on every
+ |channel read and write, and so memory follows the bytes in flight instead of the connection count
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Moved into com.eaidesign.echo for the Maven build
+ 1.2  - 10182026 - Slab size per pool, so a pool for a single connection doesn't reserve whole slabs
+ 1.3  - 10182026 - Rawtypes warning on the free list array suppressed along with unchecked
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+public class BufferPool {
+
+    //Buffer sizes handed out. A request is rounded up to the smallest class that fits it
+    public static final int[] SIZE_CLASSES = {512, 2048, 8192, 65536};
+
+    public static final int SLAB_BYTES = 256 * 1024; //Default direct memory allocated at a time for a size class
+
+    private final ArrayDeque<ByteBuffer>[] free; //Released buffers for each size class, ready to be leased again
+    private final ByteBuffer[] slabs; //The slab each size class is currently carving new buffers out of
+    private final long maxBytes; //Most direct memory this pool will ever allocate
+    private final int slabBytes; //Direct memory allocated at a time for a size class, never less than the class itself
+
+    //Only the owning thread writes these. They are volatile so another thread can read a snapshot
+    private volatile long allocatedBytes; //Direct memory allocated in slabs so far
+    private volatile long leasedBytes; //Capacity of the pooled buffers currently out on lease
+    private volatile long leases; //Every acquire() call
+    private volatile long misses; //Leases that couldn't be served from a free list
+    private volatile long overflows; //Leases served with a heap buffer because the pool was full or the size too big
+
+    /**
+     * A pool is not thread safe. Each worker event loop owns one and only ever touches it from its own thread
+     *
+     * @param maxBytes upper bound on the direct memory the pool allocates, after which it hands out heap buffers
+     */
+    public BufferPool(long maxBytes){
+        this(maxBytes, SLAB_BYTES);
+    }
+
+    /**
+     * Same as above with a chosen slab size. A pool that only ever serves one connection wants small slabs, 0 means
+     * every buffer is allocated on its own at exactly its size class
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(long maxBytes, int slabBytes){
+        this.maxBytes = maxBytes;
+        this.slabBytes = slabBytes;
+        this.free = new ArrayDeque[SIZE_CLASSES.length];
+        this.slabs = new ByteBuffer[SIZE_CLASSES.length];
+        for(int i = 0; i < SIZE_CLASSES.length; i++){
+            free[i] = new ArrayDeque<ByteBuffer>();
+        }
+    }
+
+    /**
+     * Leases a cleared buffer with at least minCapacity bytes of room. It should be handed back with release() once
+     * its contents have been written out
+     */
+    public ByteBuffer acquire(int minCapacity){
+        leases++;
+
+        int sizeClass = sizeClassFor(minCapacity);
+        if(sizeClass < 0){
+            overflows++;
+            misses++;
+            return ByteBuffer.allocate(minCapacity); //Bigger than anything the pool keeps
+        }
+
+        ByteBuffer buffer = free[sizeClass].pollFirst();
+        if(buffer == null){
+            misses++;
+            buffer = carve(sizeClass);
+            if(buffer == null){
+                overflows++;
+                return ByteBuffer.allocate(SIZE_CLASSES[sizeClass]); //Pool is at its limit
+            }
+        }
+
+        leasedBytes += buffer.capacity();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a leased buffer to its free list. Heap buffers handed out on overflow are simply dropped for the garbage
+     * collector, as is null so callers don't need to check
+     */
+    public void release(ByteBuffer buffer){
+        if(buffer == null || !buffer.isDirect()){
+            return;
+        }
+
+        int sizeClass = sizeClassFor(buffer.capacity());
+        if(sizeClass < 0 || SIZE_CLASSES[sizeClass] != buffer.capacity()){
+            return; //Not one of ours
+        }
+
+        leasedBytes -= buffer.capacity();
+        buffer.clear();
+        free[sizeClass].addFirst(buffer); //Most recently used first, it is the most likely to still be in cache
+    }
+
+    /**
+     * Slices the next buffer of a size class off that class's slab, allocating a new slab when the current one is used
+     * up. Returns null when another slab would take the pool past maxBytes
+     */
+    private ByteBuffer carve(int sizeClass){
+        int size = SIZE_CLASSES[sizeClass];
+        ByteBuffer slab = slabs[sizeClass];
+
+        if(slab == null || slab.remaining() < size){
+            int slabBytes = Math.max(size, this.slabBytes);
+            if(allocatedBytes + slabBytes > maxBytes){
+                //No room for a whole slab, try for a buffer on its own before giving up
+                if(allocatedBytes + size > maxBytes){
+                    return null;
+                }
+                slabBytes = size;
+            }
+            slab = ByteBuffer.allocateDirect(slabBytes);
+            slabs[sizeClass] = slab;
+            allocatedBytes += slabBytes;
+        }
+
+        int start = slab.position();
+        slab.limit(start + size);
+        ByteBuffer buffer = slab.slice();
+        slab.limit(slab.capacity());
+        slab.position(start + size);
+        return buffer;
+    }
+
+    private static int sizeClassFor(int capacity){
+        for(int i = 0; i < SIZE_CLASSES.length; i++){
+            if(capacity <= SIZE_CLASSES[i]){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getAllocatedBytes(){
+        return allocatedBytes;
+    }
+
+    public long getLeasedBytes(){
+        return leasedBytes;
+    }
+
+    public long getLeases(){
+        return leases;
+    }
+
+    public long getMisses(){
+        return misses;
+    }
+
+    public long getOverflows(){
+        return overflows;
+    }
+
+    /**
+     * Fraction of the direct memory allocated so far that is currently out on lease
+     */
+    public double getOccupancy(){
+        long allocated = allocatedBytes;
+        return allocated == 0 ? 0.0 : (double) leasedBytes / allocated;
+    }
+
+    @Override
+    public String toString(){
+        return "BufferPool[allocated=" + allocatedBytes + " leased=" + leasedBytes + " leases=" + leases
+                + " misses=" + misses + " overflows=" + overflows + "]";
+    }
+}
@@ -0,0 +1,204 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: reads back a capture written by TrafficCapture. Every worker wrote its own segments, in
+ |time order, so the reader keeps one cursor per worker and merges them by timestamp into a single
+ |stream of records. Segments are mapped read only and payloads are views of the mapping, nothing
+ |is copied
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CaptureReader {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("w(\\d+)-(\\d+)\\.seg");
+
+    private final PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(8, new Comparator<Cursor>(){
+        public int compare(Cursor a, Cursor b){
+            return Long.compare(a.current.nanos, b.current.nanos);
+        }
+    });
+
+    /**
+     * @param directory one run's capture directory, as logged by the server when it started recording
+     */
+    public CaptureReader(File directory) throws IOException{
+        File[] files = directory.listFiles();
+        if(files == null){
+            throw new FileNotFoundException("No capture directory at " + directory);
+        }
+
+        //Worker id to its segments in order
+        Map<Integer, TreeMap<Integer, File>> workers = new TreeMap<Integer, TreeMap<Integer, File>>();
+        for(File file : files){
+            Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+            if(!matcher.matches()){
+                continue;
+            }
+            int worker = Integer.parseInt(matcher.group(1));
+            TreeMap<Integer, File> segments = workers.get(worker);
+            if(segments == null){
+                segments = new TreeMap<Integer, File>();
+                workers.put(worker, segments);
+            }
+            segments.put(Integer.parseInt(matcher.group(2)), file);
+        }
+        if(workers.isEmpty()){
+            throw new FileNotFoundException("No capture segments in " + directory);
+        }
+
+        for(TreeMap<Integer, File> segments : workers.values()){
+            Cursor cursor = new Cursor(new ArrayList<File>(segments.values()));
+            if(cursor.advance()){
+                cursors.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * The next record across every worker's segments, earliest first
+     *
+     * @return null once every segment has been read
+     */
+    public Record next() throws IOException{
+        Cursor cursor = cursors.poll();
+        if(cursor == null){
+            return null;
+        }
+        Record record = cursor.current;
+        if(cursor.advance()){
+            cursors.add(cursor);
+        }
+        return record;
+    }
+
+    /**
+     * One read as the server saw it, or a connection closing
+     */
+    public static final class Record {
+        final long connectionId;
+        final long nanos; //The server's System.nanoTime(), only meaningful relative to other records of the capture
+        final ByteBuffer payload; //Read only view of the mapped segment, null for a close
+
+        Record(long connectionId, long nanos, ByteBuffer payload){
+            this.connectionId = connectionId;
+            this.nanos = nanos;
+            this.payload = payload;
+        }
+
+        public long getConnectionId(){
+            return connectionId;
+        }
+
+        public long getNanos(){
+            return nanos;
+        }
+
+        public ByteBuffer getPayload(){
+            return payload == null ? null : payload.duplicate();
+        }
+
+        public boolean isClose(){
+            return payload == null;
+        }
+    }
+
+    /**
+     * Walks one worker's segments in order
+     */
+    private static final class Cursor {
+        private final List<File> segments;
+        private int nextSegment;
+        private ByteBuffer segment; //Read only, positioned at the next record
+        Record current;
+
+        Cursor(List<File> segments){
+            this.segments = segments;
+        }
+
+        /**
+         * Moves to the next record, into the next segment when this one has no more. A record cut short, which is all
+         * a crash mid write can leave, ends the segment like a zero length does
+         */
+        boolean advance() throws IOException{
+            while(true){
+                if(segment == null){
+                    if(nextSegment == segments.size()){
+                        current = null;
+                        return false;
+                    }
+                    segment = map(segments.get(nextSegment++));
+                }
+
+                if(segment.remaining() >= TrafficCapture.RECORD_HEADER_BYTES){
+                    int start = segment.position();
+                    int length = segment.getInt(start);
+                    int payloadBytes = Math.max(0, length);
+                    if(length != 0 && length >= TrafficCapture.CLOSED
+                            && segment.remaining() >= TrafficCapture.RECORD_HEADER_BYTES + payloadBytes){
+                        long connectionId = segment.getLong(start + 4);
+                        long nanos = segment.getLong(start + 12);
+                        ByteBuffer payload = null;
+                        if(length != TrafficCapture.CLOSED){
+                            payload = segment.duplicate();
+                            payload.position(start + TrafficCapture.RECORD_HEADER_BYTES);
+                            payload.limit(start + TrafficCapture.RECORD_HEADER_BYTES + payloadBytes);
+                            payload = payload.slice();
+                        }
+                        segment.position(start + TrafficCapture.RECORD_HEADER_BYTES + payloadBytes);
+                        current = new Record(connectionId, nanos, payload);
+                        return true;
+                    }
+                }
+                segment = null; //End of what was written
+            }
+        }
+
+        private static ByteBuffer map(File file) throws IOException{
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try{
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if(mapped.remaining() < TrafficCapture.SEGMENT_HEADER_BYTES
+                        || mapped.getInt(0) != TrafficCapture.MAGIC){
+                    throw new IOException(file + " is not a capture segment");
+                }
+                if(mapped.getInt(4) != TrafficCapture.VERSION){
+                    throw new IOException(file + " is capture version " + mapped.getInt(4) + ", expected "
+                            + TrafficCapture.VERSION);
+                }
+                mapped.position(TrafficCapture.SEGMENT_HEADER_BYTES);
+                return mapped;
+            }finally{
+                channel.close(); //The mapping outlives the channel
+            }
+        }
+    }
+}
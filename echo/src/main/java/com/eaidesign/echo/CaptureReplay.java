@@ -0,0 +1,355 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: replay mode for the Echo Client. Sends a capture recorded by the server back at a
+ |server, one client connection per captured connection, with every read sent as one write at its
+ |original offset in time, scaled, or as fast as the server takes it. Checks every echo byte for
+ |byte against what was sent and times each read's round trip into a Histogram
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Close records now mean either end closed, the server's closes are replayed too
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class CaptureReplay implements ClientDriver {
+
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5); //Wait for stragglers after the run
+    private static final int RECORDS_PER_TICK = 1024; //So a burst at max speed still lets the loop read echoes
+
+    //1 is the original timing, 2 twice as fast, max(or 0) as fast as the server takes it(-Decho.replay.speed)
+    private final double speed = parseSpeed(System.getProperty("echo.replay.speed", "1"));
+    //Unechoed bytes past which sending pauses, which is what paces a max speed replay(-Decho.replay.maxInFlightBytes)
+    private final long maxInFlightBytes = Long.getLong("echo.replay.maxInFlightBytes", 64L * 1024 * 1024);
+
+    private final CaptureReader reader;
+    private final Map<Long, ReplayConnection> connections = new HashMap<Long, ReplayConnection>(); //By captured id
+    private final Histogram histogram = new Histogram(TimeUnit.HOURS.toNanos(1)); //Round trip times in nanoseconds
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024); //Shared, the loop is one thread
+
+    private Selector selector;
+    private InetSocketAddress address;
+    private CaptureReader.Record next; //Next record to send, null once the capture is used up
+    private long firstNanos; //Capture time of the first record
+    private long lastNanos; //Capture time of the last record sent
+    private long startNanos; //When the replay started
+    private long finishedNanos; //When the last record was sent
+    private long lastCompletionNanos;
+    private long inFlightBytes; //Sent and not yet echoed, across every connection
+    private long sent; //Records sent
+    private long sentBytes;
+    private long completed; //Records fully echoed
+    private long mismatches; //Echoed chunks whose bytes didn't match what was sent, or that nothing was sent for
+    private long failures; //Connections lost with echoes outstanding
+    private boolean done;
+
+    public CaptureReplay(CaptureReader reader){
+        this.reader = reader;
+    }
+
+    static double parseSpeed(String speed){
+        if("max".equalsIgnoreCase(speed.trim())){
+            return 0;
+        }
+        double value = Double.parseDouble(speed.trim());
+        if(value < 0){
+            throw new IllegalArgumentException("echo.replay.speed must be max or a positive factor but was " + speed);
+        }
+        return value;
+    }
+
+    /**
+     * Nothing is opened yet, each captured connection is opened when its first record comes due
+     */
+    @Override
+    public void open(Selector selector, InetSocketAddress address) throws IOException{
+        this.selector = selector;
+        this.address = address;
+        next = reader.next();
+        if(next != null){
+            firstNanos = next.nanos;
+        }
+        startNanos = System.nanoTime();
+        Log.info("Replaying to {} at {}", address, speed == 0 ? "max speed" : speed + "x");
+    }
+
+    /**
+     * Sends every record that has come due. At max speed, or once a slow server has let too much pile up, records
+     * wait for echoes to free up room instead. A record keeps the time it was due, not when it went out, so a server
+     * that falls behind shows up in the latency(coordinated omission)
+     */
+    @Override
+    public long tick(long now) throws IOException{
+        if(done){
+            return -1;
+        }
+
+        int issued = 0;
+        while(next != null){
+            long dueNanos = speed == 0 ? now : startNanos + (long) ((next.nanos - firstNanos) / speed);
+            if(dueNanos > now){
+                return dueNanos - now;
+            }
+            if(inFlightBytes >= maxInFlightBytes){
+                return TimeUnit.MILLISECONDS.toNanos(1);
+            }
+            if(issued++ == RECORDS_PER_TICK){
+                return 0;
+            }
+            replay(next, dueNanos);
+            lastNanos = next.nanos;
+            next = reader.next();
+        }
+
+        //Everything is sent. Finished once every echo is back or the stragglers have had long enough
+        if(finishedNanos == 0){
+            finishedNanos = now;
+            Log.info("Replay sent {} reads, waiting for the last echoes", sent);
+        }
+        if(inFlightBytes == 0 || now - finishedNanos > DRAIN_TIMEOUT_NANOS){
+            done = true;
+            return -1;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(10);
+    }
+
+    private void replay(CaptureReader.Record record, long dueNanos) throws IOException{
+        ReplayConnection connection = connections.get(record.connectionId);
+
+        if(record.isClose()){
+            if(connection != null){
+                connection.closing = true;
+                closeIfDrained(connection);
+            }
+            return;
+        }
+
+        if(connection == null){
+            SocketChannel socketChannel = SocketChannel.open();
+            socketChannel.configureBlocking(false);
+            socketChannel.connect(address);
+            connection = new ReplayConnection(socketChannel);
+            connection.key = socketChannel.register(selector, SelectionKey.OP_CONNECT, connection);
+            connections.put(record.connectionId, connection);
+        }
+        if(!connection.key.isValid()){
+            return; //Lost earlier and already counted
+        }
+
+        ByteBuffer payload = record.getPayload();
+        connection.outbound.addLast(payload.duplicate());
+        connection.pending.addLast(new Pending(payload, dueNanos));
+        inFlightBytes += payload.remaining();
+        sent++;
+        sentBytes += payload.remaining();
+
+        if(connection.connected){
+            flush(connection);
+        }
+    }
+
+    @Override
+    public void connect(SelectionKey key) throws IOException{
+        ReplayConnection connection = (ReplayConnection) key.attachment();
+
+        if(connection.socketChannel.isConnectionPending()){
+            connection.socketChannel.finishConnect();
+        }
+        connection.connected = true;
+        flush(connection);
+    }
+
+    @Override
+    public void write(SelectionKey key) throws IOException{
+        flush((ReplayConnection) key.attachment());
+    }
+
+    /**
+     * Writes straight from the mapped capture, each read as it was captured
+     */
+    private void flush(ReplayConnection connection) throws IOException{
+        ByteBuffer head;
+        while((head = connection.outbound.peekFirst()) != null){
+            connection.socketChannel.write(head);
+            if(head.hasRemaining()){
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            connection.outbound.pollFirst();
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Checks the echo against the oldest reads still outstanding and records a round trip for each one that is now
+     * fully back
+     */
+    @Override
+    public void read(SelectionKey key) throws IOException{
+        ReplayConnection connection = (ReplayConnection) key.attachment();
+
+        readBuffer.clear();
+        int bytesRead = connection.socketChannel.read(readBuffer);
+        long now = System.nanoTime();
+
+        if(bytesRead == -1){
+            close(connection, "Server closed a replay connection");
+            return;
+        }
+        readBuffer.flip();
+
+        while(readBuffer.hasRemaining()){
+            Pending pending = connection.pending.peekFirst();
+            if(pending == null){
+                mismatches++; //More came back than was sent
+                break;
+            }
+
+            int length = Math.min(readBuffer.remaining(), pending.expected.remaining());
+            ByteBuffer expected = pending.expected.duplicate();
+            expected.limit(expected.position() + length);
+            ByteBuffer actual = readBuffer.duplicate();
+            actual.limit(readBuffer.position() + length);
+            if(!actual.equals(expected)){
+                mismatches++;
+            }
+
+            readBuffer.position(readBuffer.position() + length);
+            pending.expected.position(pending.expected.position() + length);
+            inFlightBytes -= length;
+
+            if(!pending.expected.hasRemaining()){
+                connection.pending.pollFirst();
+                histogram.recordValue(Math.max(0, now - pending.dueNanos));
+                completed++;
+                lastCompletionNanos = now;
+            }
+        }
+
+        closeIfDrained(connection);
+    }
+
+    /**
+     * The captured connection was closed, by the client or by the server, which is done here too once everything it
+     * sent has been echoed
+     */
+    private void closeIfDrained(ReplayConnection connection){
+        if(connection.closing && connection.pending.isEmpty() && connection.key.isValid()){
+            connection.close();
+        }
+    }
+
+    @Override
+    public void close(SelectionKey key, IOException cause){
+        close((ReplayConnection) key.attachment(), "Replay connection failed: " + cause);
+    }
+
+    private void close(ReplayConnection connection, String reason){
+        if(!connection.pending.isEmpty()){
+            failures++;
+            Log.warn("{} with {} reads outstanding", reason, connection.pending.size());
+            for(Pending pending : connection.pending){
+                inFlightBytes -= pending.expected.remaining();
+            }
+            connection.pending.clear();
+        }
+        connection.close();
+    }
+
+    /**
+     * Closes every connection and prints the results, first for people and then as one line of JSON for scripts
+     */
+    @Override
+    public void report(){
+        for(ReplayConnection connection : new ArrayList<ReplayConnection>(connections.values())){
+            if(connection.key.isValid()){
+                close(connection, "Replay ended");
+            }
+        }
+
+        double seconds = Math.max(1, lastCompletionNanos - startNanos) / 1e9;
+        double captured = (lastNanos - firstNanos) / 1e9; //Span of what was replayed, as the server saw it
+        System.out.println(String.format(Locale.ROOT,
+                "Replay finished: %d reads, %d bytes over %d connections in %.2f s (captured over %.2f s, speed %s)",
+                completed, sentBytes, connections.size(), seconds, captured, speed == 0 ? "max" : speed + "x"));
+        System.out.println(String.format(Locale.ROOT, "Throughput: %.1f reads/s", completed / seconds));
+        System.out.println(String.format(Locale.ROOT,
+                "Round trip (us): mean=%.1f p50=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+                histogram.getMean() / 1e3, micros(50.0), micros(99.0), micros(99.9), histogram.getMax() / 1e3));
+        System.out.println("Sent reads: " + sent + ", mismatched echoes: " + mismatches + ", failed connections: "
+                + failures);
+
+        System.out.println(String.format(Locale.ROOT,
+                "SUMMARY {\"connections\":%d,\"speed\":\"%s\",\"seconds\":%.3f,\"capturedSeconds\":%.3f,\"reads\":%d,"
+                        + "\"completed\":%d,\"bytes\":%d,\"throughput\":%.1f,\"meanUs\":%.1f,\"p50Us\":%.1f,"
+                        + "\"p99Us\":%.1f,\"p999Us\":%.1f,\"maxUs\":%.1f,\"mismatches\":%d,\"failures\":%d}",
+                connections.size(), speed == 0 ? "max" : String.valueOf(speed), seconds, captured, sent, completed,
+                sentBytes, completed / seconds, histogram.getMean() / 1e3, micros(50.0), micros(99.0), micros(99.9),
+                histogram.getMax() / 1e3, mismatches, failures));
+    }
+
+    private double micros(double percentile){
+        return histogram.getValueAtPercentile(percentile) / 1e3;
+    }
+
+    /**
+     * A read sent and not yet fully echoed
+     */
+    private static final class Pending {
+        final ByteBuffer expected; //What should come back, consumed as it does
+        final long dueNanos; //When it was due to be sent, latency is measured from here
+
+        Pending(ByteBuffer expected, long dueNanos){
+            this.expected = expected;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * State for one replayed connection, attached to its SelectionKey
+     */
+    private static final class ReplayConnection {
+        final SocketChannel socketChannel;
+        SelectionKey key;
+        boolean connected;
+        boolean closing; //The captured connection closed, close once drained
+        final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>(); //Views of the capture still to write
+        final ArrayDeque<Pending> pending = new ArrayDeque<Pending>(); //Sent or queued, not yet echoed, oldest first
+
+        ReplayConnection(SocketChannel socketChannel){
+            this.socketChannel = socketChannel;
+        }
+
+        void close(){
+            key.cancel();
+            try{
+                socketChannel.close();
+            }catch(IOException ie){
+                Log.debug("Error closing replay connection: {}", ie);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: traffic the Echo Client drives from its event loop in place of the typed message,
+ |generated load or a replayed capture. The loop calls tick() once per pass and hands over every
+ |selected key of the connections the driver opened
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation, pulled out of LoadGenerator
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+public interface ClientDriver {
+
+    /**
+     * Called once before the loop starts. Connections may be opened here or later from tick(), always on this Selector
+     */
+    void open(Selector selector, InetSocketAddress address) throws IOException;
+
+    /**
+     * Called once per pass of the event loop to send whatever has come due
+     *
+     * @return nanoseconds until the next thing is due, 0 if the loop shouldn't block, or -1 once the run is over
+     */
+    long tick(long now) throws IOException;
+
+    void connect(SelectionKey key) throws IOException;
+
+    void read(SelectionKey key) throws IOException;
+
+    void write(SelectionKey key) throws IOException;
+
+    /**
+     * A connection failed. It is closed and counted rather than ending the whole run
+     */
+    void close(SelectionKey key, IOException cause);
+
+    /**
+     * Closes whatever is still open and prints the results
+     */
+    void report();
+}
@@ -0,0 +1,96 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: UDP echo on a non-blocking DatagramChannel, for probes that only want a round trip and
+ |no connection. Attached to the channel's key on a worker's Selector next to that worker's TCP
+ |connections. Every wakeup drains a batch of datagrams, each one received into the same pooled
+ |buffer and sent straight back to where it came from, so nothing is queued and nothing is allocated
+ |per packet by this code. A datagram the socket can't take right now is dropped, as UDP would
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Empty datagrams are echoed and not counted as dropped
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+public class DatagramEcho {
+
+    private final DatagramChannel channel; //Bound, non-blocking
+    private final BufferPool bufferPool; //The owning worker's
+    private final ByteBuffer buffer; //Every datagram is received into and echoed from this, leased once
+    private final int batch; //Most datagrams handled per wakeup
+    private final EchoMetrics metrics; //Server wide counters
+
+    public DatagramEcho(DatagramChannel channel, EchoConfig config, BufferPool bufferPool, EchoMetrics metrics){
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+        this.buffer = bufferPool.acquire(65507); //Largest payload a UDP datagram over IPv4 can carry
+        this.batch = config.getUdpBatch();
+        this.metrics = metrics;
+    }
+
+    public DatagramChannel getChannel(){
+        return channel;
+    }
+
+    /**
+     * Called when the key is readable. Echoes datagrams until the socket has none left or the batch is used up, in
+     * which case the key is still readable and the rest wait for the next pass so TCP connections on the same worker
+     * aren't starved
+     *
+     * @return datagrams received
+     */
+    public int drain() throws IOException{
+        int received = 0;
+
+        while(received < batch){
+            buffer.clear();
+            SocketAddress sender = channel.receive(buffer);
+            if(sender == null){
+                break; //Nothing left
+            }
+            received++;
+            buffer.flip();
+            metrics.datagramsIn.increment();
+
+            int length = buffer.remaining();
+            try{
+                int sent = channel.send(buffer, sender);
+                if(length > 0 && sent == 0){ //An empty datagram also sends 0 bytes, but it did go out
+                    metrics.datagramsDropped.increment(); //Send buffer full
+                }else{
+                    metrics.datagramsOut.increment();
+                }
+            }catch(IOException ie){
+                //Only this one sender is affected, the channel carries on with the rest
+                metrics.datagramsDropped.increment();
+                Log.debug("Could not echo a datagram: {}", ie);
+            }
+        }
+        return received;
+    }
+
+    public void close(){
+        bufferPool.release(buffer);
+        try{
+            channel.close();
+        }catch(IOException ie){
+            Log.debug("Error closing datagram channel: {}", ie);
+        }
+    }
+}
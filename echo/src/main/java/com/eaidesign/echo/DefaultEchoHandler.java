@@ -0,0 +1,185 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: the echo itself. Binary or text, framed or not, with the optional MessageInspector.
+ |Used to live in EchoWorker and was pulled out so every transport shares it
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation, moved out of EchoWorker
+ 1.1  - 10182026 - Encoding split from queueing so the broadcast handler can reuse it
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+public class DefaultEchoHandler implements EchoHandler {
+
+    protected final EchoConfig config; //Mode, framing and inspector
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder(); //Not thread safe, hence one handler per thread
+
+    public DefaultEchoHandler(EchoConfig config){
+        this.config = config;
+    }
+
+    public void onRead(EchoSession session, ByteBuffer in) throws IOException{
+        if(config.getFraming() != Framing.NONE){
+            readFrames(session, in);
+        }else{
+            readMessage(session, in);
+        }
+    }
+
+    /**
+     * Unframed read. Whatever one read returned is the message
+     */
+    private void readMessage(EchoSession session, ByteBuffer in) throws IOException{
+        MessageInspector inspector = config.getInspector();
+
+        //Bytes are only turned into characters when something is going to look at them
+        CharBuffer charBuffer = null;
+        if(inspector != null || !config.isBinary()){
+            charBuffer = session.decode(in);//Decoding the incoming bytes to systems native characters
+        }
+
+        if(inspector != null){
+            inspector.inspect(session, charBuffer.duplicate());
+        }
+
+        if(config.isBinary()){
+            echo(session, in); //Passing the raw bytes to echo(method)
+        }else{
+            echo(session, charBuffer); //Passing to echo(method)
+        }
+    }
+
+    /**
+     * Framed read. Pulls every complete frame out of what has arrived so far, which may be many pipelined requests or
+     * the tail of one that started in an earlier read, and answers them in the order they came. The start of a frame
+     * that isn't complete yet is held on the session until the next read. In binary mode the run of complete frames
+     * is echoed with one send straight from the buffer it arrived in, header and all
+     */
+    private void readFrames(EchoSession session, ByteBuffer readBuffer) throws IOException{
+        Framing framing = config.getFraming();
+        MessageInspector inspector = config.getInspector();
+
+        ByteBuffer in = session.joinPartialFrame(readBuffer);
+        int completeStart = in.position();
+
+        while(true){
+            int frameStart = in.position();
+            int payloadLength = framing.readHeader(in);
+            if(payloadLength < 0){
+                break; //Header not all here yet
+            }
+            if(payloadLength > config.getMaxFrameBytes()){
+                throw new ProtocolException("Frame of " + payloadLength + " bytes is over the limit of "
+                        + config.getMaxFrameBytes());
+            }
+            if(in.remaining() < payloadLength){
+                in.position(frameStart); //Payload not all here yet, keep the header with it
+                break;
+            }
+
+            ByteBuffer payload = in.duplicate();
+            payload.limit(in.position() + payloadLength);
+            in.position(payload.limit());
+
+            if(!config.isBinary()){
+                CharBuffer charBuffer = session.decodeFrame(payload);
+                if(inspector != null){
+                    inspector.inspect(session, charBuffer.duplicate());
+                }
+                enqueueEncoded(session, charBuffer);
+            }else if(inspector != null){
+                inspector.inspect(session, session.decodeFrame(payload));
+            }
+        }
+
+        if(config.isBinary() && in.position() > completeStart){
+            ByteBuffer complete = in.duplicate();
+            complete.limit(in.position());
+            complete.position(completeStart);
+            echo(session, complete);
+        }else if(!config.isBinary()){
+            session.flush();
+        }
+
+        session.holdPartialFrame(in);
+    }
+
+    /**
+     * Binary echo. Sends the bytes that were just read back to the client exactly as they arrived, from the read
+     * buffer itself. Nothing is decoded, encoded or allocated unless the socket can't take it all at once
+     */
+    public void echo(EchoSession session, ByteBuffer bytes) throws IOException{
+        if(Log.isTraceEnabled()){
+            Log.trace("Echoing {} bytes to: {}", bytes.remaining(), session.getRemoteAddress());
+        }
+        session.send(bytes);
+    }
+
+    /**
+     * Text echo. Encodes the message back to bytes and queues it on the session behind anything still pending, then
+     * writes as much as the transport will take right now
+     */
+    public void echo(EchoSession session, CharBuffer charBuffer) throws IOException{
+        if(Log.isTraceEnabled()){
+            Log.trace("Message received from Client: {}", charBuffer.toString());
+        }
+
+        enqueueEncoded(session, charBuffer);
+        session.flush();
+    }
+
+    private void enqueueEncoded(EchoSession session, CharBuffer charBuffer) throws IOException{
+        session.enqueue(encode(session, charBuffer));
+    }
+
+    /**
+     * Encodes the characters into a buffer leased from the session's pool, which the caller then owns. When framing is
+     * on, room is left in front for the largest possible header and the real header is written just before the
+     * encoded bytes once their length is known, so a frame is still one buffer
+     */
+    protected ByteBuffer encode(EchoSession session, CharBuffer charBuffer) throws IOException{
+        Framing framing = config.getFraming();
+        BufferPool bufferPool = session.getBufferPool();
+        int headroom = framing.getMaxHeaderBytes();
+
+        ByteBuffer encoded = bufferPool.acquire(headroom
+                + (int) Math.ceil(charBuffer.remaining() * (double) encoder.maxBytesPerChar()));
+        encoded.position(headroom);
+        encoder.reset();
+        CoderResult result = encoder.encode(charBuffer, encoded, true);
+        if(result.isError()){
+            bufferPool.release(encoded);
+            result.throwException();
+        }
+        encoder.flush(encoded);
+
+        int end = encoded.position();
+        int payloadLength = end - headroom;
+        int start = headroom - framing.headerLength(payloadLength);
+        encoded.position(start);
+        framing.putHeader(encoded, payloadLength);
+
+        encoded.limit(end);
+        encoded.position(start);
+        return encoded;
+    }
+}
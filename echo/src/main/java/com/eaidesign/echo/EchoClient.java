@@ -0,0 +1,414 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: this application is still apart of the chattyKathy application as it will also have
+ |echo functionality
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 02102015 - Initial Creation
+ 1.1  - 10182026 - Read and write through direct buffers leased from a BufferPool
+ 1.2  - 10182026 - Diagnostics go through the asynchronous Log, only the conversation stays on the console
+ 1.3  - 10182026 - Framed mode pipelining the message many times over one connection
+ 1.4  - 10182026 - Load mode driving many connections from the same loop with latency histograms
+ 1.5  - 10182026 - Moved into com.eaidesign.echo for the Maven build
+ 1.6  - 10182026 - Load mode port from -Decho.port
+ 1.7  - 10182026 - Replay mode driving a recorded capture, load and replay both behind ClientDriver
+ 1.8  - 10182026 - Interactive mode port from -Decho.port too, no unused channel opened in load and replay modes
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class EchoClient implements Runnable {
+
+
+    private InetAddress clientAddress; //IP Address of client
+    private SocketChannel socketChannel; //A socket for the client to connect
+    private Selector selector; //A Selector object for multiplexing
+    private BufferPool bufferPool = new BufferPool(1024 * 1024); //Direct buffers, only used from the client thread
+    private ByteBuffer readBuffer = bufferPool.acquire(8192); //A direct ByteBuffer for reading
+    private ByteBuffer writeBuffer; //A direct ByteBuffer for writing, leased while the message is being sent
+    private int port = 10000; //Port used to connect the sockets
+    private CharBuffer charBuffer;
+    private Charset charset = Charset.defaultCharset(); //Creates a charset for encode and decoding bytes to String
+    private CharsetDecoder decoder = charset.newDecoder(); //A decoder for decoding data from Buffers
+    private String message = "";
+    private final int TIMEOUT = 10000;
+    private Framing framing = Framing.parse(System.getProperty("echo.framing", "none")); //Must match the server's
+    private int requests = Integer.getInteger("echo.client.requests", 1); //Times the message is sent when framed
+    private int pipeline = Integer.getInteger("echo.client.pipeline", 128); //Most framed requests in flight at once
+    private int sent; //Framed requests written so far
+    private int received; //Framed echoes read back so far
+    private ClientDriver load; //Set in load or replay mode, which replace the single message with generated or recorded traffic
+
+    /**
+     * Main method. Launches thread with instance of EchoClient and moves control throughout program
+     */
+    public static void main(String args[]) {
+        //Replay mode(-Decho.replay=<capture directory>) sends a capture recorded by the server back at it
+        String replay = System.getProperty("echo.replay");
+        if(replay != null){
+            try {
+                new Thread(new EchoClient(null, Integer.getInteger("echo.port", 10000),
+                        new CaptureReplay(new CaptureReader(new File(replay)))), "echo-replay").start();
+            } catch (Exception e) {
+                Log.error("Could not start the replay client", e);
+            }
+            return;
+        }
+
+        //Load mode(-Decho.load=true) skips the prompt and drives the server with generated requests instead
+        if(Boolean.getBoolean("echo.load")){
+            try {
+                new Thread(new EchoClient(null, Integer.getInteger("echo.port", 10000), new LoadGenerator(
+                        Framing.parse(System.getProperty("echo.framing", "none")))), "echo-load").start();
+            } catch (Exception e) {
+                Log.error("Could not start the load client", e);
+            }
+            return;
+        }
+
+        String input;
+        Scanner scanner = new Scanner(System.in);
+
+        System.out.println("Hello and welcome to EAI Design's Echo application"); //Status message for user
+        System.out.println("Please type a message to echo");
+        input = scanner.nextLine();
+
+        System.out.println("You typed: " + input);
+
+        try {
+            //Starts a new thread which launches an instance of EchoClient
+            new Thread(new EchoClient(null, Integer.getInteger("echo.port", 10000), input)).start();
+        } catch (IOException ie) {
+            Log.error("Could not start the client", ie);
+        } catch (Exception e) {
+            Log.error("Could not start the client", e);
+        }
+    }
+
+    public EchoClient(InetAddress clientAddress, int port, String input) throws Exception {
+        this.clientAddress = clientAddress;
+        this.port = port;
+        this.message = input;
+        this.selector = this.initSelector();
+    }
+
+    /**
+     * Load or replay mode. The driver opens its own connections on this client's Selector and run() drives them
+     */
+    public EchoClient(InetAddress clientAddress, int port, ClientDriver load) throws Exception {
+        this.clientAddress = clientAddress;
+        this.port = port;
+        this.load = load;
+        this.selector = this.initSelector();
+    }
+
+    /**
+     * Method to create a new Selector for the Client. This is how we create a multiplexing system. The selector
+     * created by this method will have an empty key set until the last line of the method where the register() method
+     * is called and the socket channel is added. The key is set to an OP_CONNECT to connection a server
+     */
+    private Selector initSelector() throws Exception {
+        //Creates a new selector using the system's default provider to do so
+        Selector socketSelector = SelectorProvider.provider().openSelector();
+
+        //Sets IP Address of current Client from OS
+        this.clientAddress = InetAddress.getLoopbackAddress(); //hostAddress.getLocalHost();
+        Log.debug("The Client Address is: {}", this.clientAddress);
+
+        if(load != null){
+            load.open(socketSelector, new InetSocketAddress(clientAddress, port)); //The driver opens its own channels
+            return socketSelector;
+        }
+
+        //Creates a new non-blocking socket channel
+        this.socketChannel = SocketChannel.open();
+        socketChannel.configureBlocking(false);
+
+        //Binds client socket to the specified port and I
+        socketChannel.connect(new InetSocketAddress(clientAddress, port));
+        Log.debug("The Client Address is: {}", socketChannel);
+
+        //Registers this client channel with the Selector and advises an interest in connecting to a server
+        Log.debug("Echo Test Client initialized...");
+        socketChannel.register(socketSelector, SelectionKey.OP_CONNECT);
+
+        Log.debug("Waiting for connections...");
+        return socketSelector; //Returns new Selector object
+    }
+
+    /**
+     * The heart and soul of the Client program logic. Once connected to the Echo Server, sends user message and awaits
+     * for reply from server(Echo). In load mode the same loop drives every load connection, giving the generator a
+     * tick on each pass to issue requests that have come due, and prints the report when the run is over
+     */
+    public void run() {
+
+        try {
+            while (!Thread.interrupted()) {
+                if (load == null) {
+                    selector.select(TIMEOUT);
+                } else {
+                    long waitNanos = load.tick(System.nanoTime());
+                    if (waitNanos < 0) {
+                        load.report();
+                        selector.close();
+                        return;
+                    }
+
+                    //Under a millisecond to the next request is too fine for select(timeout), so poll instead
+                    if (waitNanos < TimeUnit.MILLISECONDS.toNanos(1)) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+                    }
+                }
+
+                Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();//Creates a key iterator object to cycle
+
+                //Cycle through the queue of keys from the selector
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();//Removes the current key so it is not processed again
+
+                    //Check the event type of the current key and use the appropriate method as long as key is valid
+                    if (!key.isValid()) {
+                        Log.debug("This key was not valid...");
+                        continue; //If the key IS NOT valid breaks out of loop
+                    }
+
+                    if (load != null) {
+                        dispatchLoad(key);
+                        continue;
+                    }
+
+                    if (key.isConnectable()) {
+                        this.connect(key); //Are we connecting?
+                    }
+
+                    if (key.isReadable()) {
+                        this.read(key); //Are we reading?
+                    }
+
+                    if (key.isWritable()){
+                        this.write(key);
+                    }
+                }
+            }
+        }catch(Exception e){
+            Log.error("Client loop failed", e);
+        }
+    }
+
+    /**
+     * Hands a load connection's key to the generator. A failed connection is closed and counted rather than ending the
+     * whole run
+     */
+    private void dispatchLoad(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                load.connect(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                load.read(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                load.write(key);
+            }
+        } catch (IOException ie) {
+            load.close(key, ie);
+        }
+    }
+
+    /**
+     * The following blocks of code handle the operations of the server. Using the first method as a template, each
+     * creates a server socket channel(only with accept method) or socketChannel to connect to the pending client's
+     * socket channel. The backend automatically assigns a random port number to each of these sockets. It then
+     * attempts a connection and configures the channel to non-blocking. I have included additional comments where
+     * it necessitates
+     */
+    public void connect(SelectionKey key)throws IOException{
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+
+        //Verifies that the socket is connected with the Echo server
+        if(socketChannel.isConnectionPending()){
+            socketChannel.finishConnect();
+        }
+
+        //Configures Channel to non-blocking
+        socketChannel.configureBlocking(false);
+
+        //Registers the channel with the selector and sets a request for WRITE operation. Framed requests are
+        //pipelined so echoes are read while later requests are still being written
+        socketChannel.register(this.selector, framing == Framing.NONE
+                ? SelectionKey.OP_WRITE : SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+
+        //Logs a status message of a connection
+        Log.info("Connecting to Server at: {}", socketChannel.socket().getRemoteSocketAddress());
+    }
+
+    public void write(SelectionKey key) throws IOException{
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+
+        //Copy the user's message into a direct buffer the first time through
+        if(writeBuffer == null){
+            writeBuffer = framing == Framing.NONE ? fillMessage() : fillFrames();
+        }
+
+        //Send to server via channel. If the socket only took part of it we stay interested in WRITE for the rest
+        socketChannel.write(writeBuffer);
+
+        if(!writeBuffer.hasRemaining()){
+            bufferPool.release(writeBuffer);
+            writeBuffer = null;
+            key.interestOps(canSend() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    private ByteBuffer fillMessage(){
+        byte[] bytes = message.getBytes();
+        ByteBuffer buffer = bufferPool.acquire(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Packs as many framed copies of the message as the pipeline window allows into one buffer, up to 64 KB, so a
+     * window's worth of requests goes out in a single write
+     */
+    private ByteBuffer fillFrames(){
+        byte[] bytes = message.getBytes();
+        int frameLength = framing.headerLength(bytes.length) + bytes.length;
+        int count = Math.min(Math.min(requests - sent, pipeline - (sent - received)), Math.max(1, 65536 / frameLength));
+
+        ByteBuffer buffer = bufferPool.acquire(count * frameLength);
+        for(int i = 0; i < count; i++){
+            framing.putHeader(buffer, bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.flip();
+
+        sent += count;
+        return buffer;
+    }
+
+    /**
+     * True while there are framed requests left to send and room for them in the pipeline window
+     */
+    private boolean canSend(){
+        return framing != Framing.NONE && sent < requests && sent - received < pipeline;
+    }
+
+    public void read(SelectionKey key) throws IOException {
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+
+        //Clears the readBuffer for new incoming data from the socket channel(Clear before read). Framed reads keep
+        //the start of a frame that hasn't fully arrived, so for them the buffer was compacted instead
+        if(framing == Framing.NONE){
+            this.readBuffer.clear();
+        }
+
+        int bytesRead; //Variable to hold data while we scan it in from the socket channel
+
+        try {
+            bytesRead = socketChannel.read(this.readBuffer);//Read from the socket channel
+        } catch (IOException ie) {
+            Log.warn("Server closed connection unexpectedly. Closing application.");
+            key.cancel();
+            socketChannel.close();
+            return;
+        }
+
+        if (bytesRead == -1) {
+            Log.info("Nothing received from server");
+            socketChannel.close();
+            key.cancel();
+            return;
+        }
+
+        this.readBuffer.flip(); //Prepare the readBuffer for writing to the CharBuffer
+
+        if(framing != Framing.NONE){
+            readFrames(key);
+            return;
+        }
+
+        charBuffer = decoder.decode(readBuffer);//Decoding the incoming bytes to the system's native characters
+
+        String serverMessage = charBuffer.toString();
+
+        System.out.println("Server said: " + serverMessage);//Prints to console what the server echos back
+    }
+
+    /**
+     * Prints every complete echo in the buffer. Echoes come back in the order the requests were sent. A frame cut off
+     * at the end of the buffer is compacted to the front for the next read, and the buffer is grown if one frame is
+     * bigger than all of it
+     */
+    private void readFrames(SelectionKey key) throws IOException{
+        while(true){
+            int frameStart = readBuffer.position();
+            int payloadLength = framing.readHeader(readBuffer);
+            if(payloadLength < 0){
+                break;
+            }
+            if(readBuffer.remaining() < payloadLength){
+                readBuffer.position(frameStart);
+                int frameLength = framing.headerLength(payloadLength) + payloadLength;
+                if(frameLength > readBuffer.capacity()){
+                    ByteBuffer bigger = bufferPool.acquire(frameLength);
+                    bigger.put(readBuffer);
+                    bigger.flip();
+                    bufferPool.release(readBuffer);
+                    readBuffer = bigger;
+                }
+                break;
+            }
+
+            ByteBuffer payload = readBuffer.duplicate();
+            payload.limit(readBuffer.position() + payloadLength);
+            readBuffer.position(payload.limit());
+            received++;
+
+            charBuffer = decoder.decode(payload);//Decoding the echo to the system's native characters
+            System.out.println("Server said: " + charBuffer.toString());//Prints to console what the server echos back
+        }
+        readBuffer.compact(); //Ready for the next read with any partial frame at the front
+
+        if(received == requests){
+            Log.info("All {} echoes received", received);
+        }
+
+        //Echoes coming back open up the pipeline window for more requests
+        if(writeBuffer == null && canSend()){
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+}
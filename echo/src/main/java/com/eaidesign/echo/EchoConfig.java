@@ -0,0 +1,521 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: tunables for the Echo Server. Every value has a default and can be overridden on the
+ |command line with a -Decho.* system property
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Framing and frame size limit
+ 1.2  - 10182026 - Moved into com.eaidesign.echo for the Maven build
+ 1.3  - 10182026 - Metrics interval and dump settings
+ 1.4  - 10182026 - Transport choice and the blocking transport's thread and buffer settings
+ 1.5  - 10182026 - Channel group size for the async transport
+ 1.6  - 10182026 - Idle, read and write timeouts and the timing wheel that enforces them
+ 1.7  - 10182026 - Listen backlog, accept batch, connection limit and SO_REUSEPORT listener sharding
+ 1.8  - 10182026 - UDP echo on the same port
+ 1.9  - 10182026 - Selector spin and failure thresholds before a rebuild
+ 1.10 - 10182026 - Broadcast rooms, the room everyone starts in and the backlog past which a member misses messages
+ 1.11 - 10182026 - Traffic capture directory and segment sizes
+ 1.12 - 10182026 - Pool limit applies to each async stripe's pool too
+ 1.13 - 10182026 - Pause before accepting again after accept() fails
+ 1.14 - 10182026 - Selector error threshold counts failed select() calls only
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+public class EchoConfig {
+
+    //Number of worker event loops the acceptor hands connections to(-Decho.workers)
+    int workers = Integer.getInteger("echo.workers", Runtime.getRuntime().availableProcessors());
+
+    //Bytes queued for one connection before its reads are suspended(-Decho.highWaterMark)
+    int highWaterMark = Integer.getInteger("echo.highWaterMark", 64 * 1024);
+
+    //Bytes queued for one connection below which its reads resume(-Decho.lowWaterMark)
+    int lowWaterMark = Integer.getInteger("echo.lowWaterMark", 16 * 1024);
+
+    //Most direct memory each worker's or async stripe's BufferPool may allocate before using heap buffers(-Decho.poolMaxBytes)
+    long poolMaxBytes = Long.getLong("echo.poolMaxBytes", 16L * 1024 * 1024);
+
+    //Echo the received bytes back untouched(binary) or decode and re-encode them(text)(-Decho.mode)
+    boolean binary = !"text".equalsIgnoreCase(System.getProperty("echo.mode", "binary"));
+
+    //How messages are delimited: none, fixed(4 byte length) or varint(-Decho.framing)
+    Framing framing = Framing.parse(System.getProperty("echo.framing", "none"));
+
+    //Largest payload a framed message may declare before the connection is dropped(-Decho.maxFrameBytes)
+    int maxFrameBytes = Integer.getInteger("echo.maxFrameBytes", 1024 * 1024);
+
+    //Seconds per metrics interval, latency percentiles cover the last one. 0 turns the interval off(-Decho.metrics.intervalSeconds)
+    int metricsIntervalSeconds = Integer.getInteger("echo.metrics.intervalSeconds", 10);
+
+    //Whether each metrics interval is also written to the log as a plain text snapshot(-Decho.metrics.dump)
+    boolean metricsDump = Boolean.parseBoolean(System.getProperty("echo.metrics.dump", "true"));
+
+    //How connections are served: selector(event loops), blocking(a thread per connection) or async(completion handlers)(-Decho.transport)
+    Transport transport = Transport.parse(System.getProperty("echo.transport", "selector"));
+
+    //Blocking transport only. Run each connection on a virtual thread when the JVM has them, else a platform thread(-Decho.blocking.virtual)
+    boolean virtualThreads = Boolean.parseBoolean(System.getProperty("echo.blocking.virtual", "true"));
+
+    //Blocking transport only. Stack size asked for each platform connection thread, 0 is the JVM default(-Decho.blocking.stackBytes)
+    long threadStackBytes = Long.getLong("echo.blocking.stackBytes", 256L * 1024);
+
+    //Blocking and async transports. Each connection's own read buffer, so kept smaller than a worker's shared one(-Decho.blocking.readBufferBytes)
+    int readBufferBytes = Integer.getInteger("echo.blocking.readBufferBytes", 2048);
+
+    //Async transport only. Threads in the channel group that runs every completion handler(-Decho.async.threads)
+    int asyncThreads = Integer.getInteger("echo.async.threads", Runtime.getRuntime().availableProcessors());
+
+    //Selector transport. Close a connection nothing has been read from or written to for this long, 0 is never(-Decho.idleTimeoutMillis)
+    long idleTimeoutMillis = Long.getLong("echo.idleTimeoutMillis", 5 * 60 * 1000L);
+
+    //Selector transport. Close a connection that stops sending partway through a framed message for this long, 0 is never(-Decho.readTimeoutMillis)
+    long readTimeoutMillis = Long.getLong("echo.readTimeoutMillis", 30 * 1000L);
+
+    //Selector transport. Close a connection whose echoes have been queued without the client taking a byte for this long, 0 is never(-Decho.writeTimeoutMillis)
+    long writeTimeoutMillis = Long.getLong("echo.writeTimeoutMillis", 30 * 1000L);
+
+    //Resolution of each worker's timing wheel. Timeouts fire up to this much late(-Decho.timer.tickMillis)
+    long timerTickMillis = Long.getLong("echo.timer.tickMillis", 100L);
+
+    //Slots in each worker's timing wheel, one turn is tickMillis * wheelSize(-Decho.timer.wheelSize)
+    int timerWheelSize = Integer.getInteger("echo.timer.wheelSize", 512);
+
+    //Length of the kernel's queue of connections waiting to be accepted(-Decho.backlog)
+    int backlog = Integer.getInteger("echo.backlog", 1024);
+
+    //Most connections accepted per OP_ACCEPT wakeup before going back to select(), so reads aren't starved(-Decho.acceptBatch)
+    int acceptBatch = Integer.getInteger("echo.acceptBatch", 64);
+
+    //How long a listener stops accepting after accept() fails, out of file descriptors most likely(-Decho.acceptBackoffMillis)
+    long acceptBackoffMillis = Long.getLong("echo.acceptBackoffMillis", 100L);
+
+    //Connections open at once past which new ones are accepted and reset straight away, 0 is no limit(-Decho.maxConnections)
+    int maxConnections = Integer.getInteger("echo.maxConnections", 0);
+
+    //Selector transport. One SO_REUSEPORT listener per worker so the kernel spreads accepts, where the OS has it(-Decho.reusePort)
+    boolean reusePort = Boolean.getBoolean("echo.reusePort");
+
+    //Selector transport. Also echo UDP datagrams on the same port number, for probes(-Decho.udp)
+    boolean udp = Boolean.getBoolean("echo.udp");
+
+    //Most datagrams echoed per wakeup before the worker moves on to its other keys(-Decho.udp.batch)
+    int udpBatch = Integer.getInteger("echo.udp.batch", 64);
+
+    //SO_RCVBUF for the UDP socket, room for bursts between wakeups. 0 leaves the OS default(-Decho.udp.receiveBufferBytes)
+    int udpReceiveBufferBytes = Integer.getInteger("echo.udp.receiveBufferBytes", 1024 * 1024);
+
+    //Selector transport. Empty early wakeups in a row before a loop rebuilds its Selector, 0 never(-Decho.selector.spinThreshold)
+    int selectorSpinThreshold = Integer.getInteger("echo.selector.spinThreshold", 512);
+
+    //Selector transport. Failed select() calls in a row before it rebuilds its Selector, 0 never(-Decho.selector.errorThreshold)
+    int selectorErrorThreshold = Integer.getInteger("echo.selector.errorThreshold", 16);
+
+    //Selector transport. Each message goes to every member of the sender's room instead of back to the sender alone(-Decho.broadcast)
+    boolean broadcast = Boolean.getBoolean("echo.broadcast");
+
+    //Room every connection is in until it sends "/join <room>"(-Decho.broadcast.room)
+    String defaultRoom = System.getProperty("echo.broadcast.room", "lobby");
+
+    //Bytes queued for one member past which broadcasts to it are dropped rather than queued(-Decho.broadcast.maxQueuedBytes)
+    int broadcastMaxQueuedBytes = Integer.getInteger("echo.broadcast.maxQueuedBytes", 1024 * 1024);
+
+    //Selector transport. Directory each run records its client traffic under, null records nothing(-Decho.capture.dir)
+    String captureDir = System.getProperty("echo.capture.dir");
+
+    //Size of each memory mapped capture segment file(-Decho.capture.segmentBytes)
+    int captureSegmentBytes = Integer.getInteger("echo.capture.segmentBytes", 64 * 1024 * 1024);
+
+    //Segments each worker may fill before it stops recording, so a forgotten capture can't fill the disk(-Decho.capture.maxSegments)
+    int captureMaxSegments = Integer.getInteger("echo.capture.maxSegments", 16);
+
+    //Optional hook that gets the decoded text of each message. Null means nothing is ever decoded in binary mode
+    MessageInspector inspector;
+
+    /**
+     * Creates a config holding the defaults, with any -Decho.* system properties already applied
+     */
+    public EchoConfig(){
+        if(workers < 1){
+            throw new IllegalArgumentException("echo.workers must be at least 1 but was " + workers);
+        }
+        checkWaterMarks(highWaterMark, lowWaterMark);
+        if(asyncThreads < 1){
+            throw new IllegalArgumentException("echo.async.threads must be at least 1 but was " + asyncThreads);
+        }
+        if(acceptBatch < 1){
+            throw new IllegalArgumentException("echo.acceptBatch must be at least 1 but was " + acceptBatch);
+        }
+        if(acceptBackoffMillis < 1){
+            throw new IllegalArgumentException("echo.acceptBackoffMillis must be at least 1 but was "
+                    + acceptBackoffMillis);
+        }
+        if(udpBatch < 1){
+            throw new IllegalArgumentException("echo.udp.batch must be at least 1 but was " + udpBatch);
+        }
+        if(captureSegmentBytes < 64 * 1024){
+            throw new IllegalArgumentException("echo.capture.segmentBytes must be at least 64 KB but was "
+                    + captureSegmentBytes);
+        }
+    }
+
+    private static void checkWaterMarks(int highWaterMark, int lowWaterMark){
+        if(lowWaterMark < 0 || highWaterMark <= lowWaterMark){
+            throw new IllegalArgumentException("Water marks must satisfy 0 <= low < high but were low="
+                    + lowWaterMark + " high=" + highWaterMark);
+        }
+    }
+
+    public int getWorkers(){
+        return workers;
+    }
+
+    public EchoConfig setWorkers(int workers){
+        if(workers < 1){
+            throw new IllegalArgumentException("workers must be at least 1 but was " + workers);
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    public int getHighWaterMark(){
+        return highWaterMark;
+    }
+
+    public int getLowWaterMark(){
+        return lowWaterMark;
+    }
+
+    /**
+     * Sets both water marks at once so they can never be seen in an inconsistent order
+     */
+    public EchoConfig setWaterMarks(int highWaterMark, int lowWaterMark){
+        checkWaterMarks(highWaterMark, lowWaterMark);
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+        return this;
+    }
+
+    public boolean isBinary(){
+        return binary;
+    }
+
+    public EchoConfig setBinary(boolean binary){
+        this.binary = binary;
+        return this;
+    }
+
+    public Transport getTransport(){
+        return transport;
+    }
+
+    public EchoConfig setTransport(Transport transport){
+        this.transport = transport;
+        return this;
+    }
+
+    public boolean isVirtualThreads(){
+        return virtualThreads;
+    }
+
+    public EchoConfig setVirtualThreads(boolean virtualThreads){
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public long getThreadStackBytes(){
+        return threadStackBytes;
+    }
+
+    public EchoConfig setThreadStackBytes(long threadStackBytes){
+        this.threadStackBytes = threadStackBytes;
+        return this;
+    }
+
+    public int getReadBufferBytes(){
+        return readBufferBytes;
+    }
+
+    public EchoConfig setReadBufferBytes(int readBufferBytes){
+        this.readBufferBytes = readBufferBytes;
+        return this;
+    }
+
+    public int getAsyncThreads(){
+        return asyncThreads;
+    }
+
+    public EchoConfig setAsyncThreads(int asyncThreads){
+        if(asyncThreads < 1){
+            throw new IllegalArgumentException("asyncThreads must be at least 1 but was " + asyncThreads);
+        }
+        this.asyncThreads = asyncThreads;
+        return this;
+    }
+
+    public long getIdleTimeoutMillis(){
+        return idleTimeoutMillis;
+    }
+
+    public EchoConfig setIdleTimeoutMillis(long idleTimeoutMillis){
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    public long getReadTimeoutMillis(){
+        return readTimeoutMillis;
+    }
+
+    public EchoConfig setReadTimeoutMillis(long readTimeoutMillis){
+        this.readTimeoutMillis = readTimeoutMillis;
+        return this;
+    }
+
+    public long getWriteTimeoutMillis(){
+        return writeTimeoutMillis;
+    }
+
+    public EchoConfig setWriteTimeoutMillis(long writeTimeoutMillis){
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        return this;
+    }
+
+    public long getTimerTickMillis(){
+        return timerTickMillis;
+    }
+
+    public EchoConfig setTimerTickMillis(long timerTickMillis){
+        this.timerTickMillis = timerTickMillis;
+        return this;
+    }
+
+    public int getTimerWheelSize(){
+        return timerWheelSize;
+    }
+
+    public EchoConfig setTimerWheelSize(int timerWheelSize){
+        this.timerWheelSize = timerWheelSize;
+        return this;
+    }
+
+    public int getBacklog(){
+        return backlog;
+    }
+
+    public EchoConfig setBacklog(int backlog){
+        this.backlog = backlog;
+        return this;
+    }
+
+    public int getAcceptBatch(){
+        return acceptBatch;
+    }
+
+    public EchoConfig setAcceptBatch(int acceptBatch){
+        if(acceptBatch < 1){
+            throw new IllegalArgumentException("acceptBatch must be at least 1 but was " + acceptBatch);
+        }
+        this.acceptBatch = acceptBatch;
+        return this;
+    }
+
+    public long getAcceptBackoffMillis(){
+        return acceptBackoffMillis;
+    }
+
+    public EchoConfig setAcceptBackoffMillis(long acceptBackoffMillis){
+        if(acceptBackoffMillis < 1){
+            throw new IllegalArgumentException("acceptBackoffMillis must be at least 1 but was " + acceptBackoffMillis);
+        }
+        this.acceptBackoffMillis = acceptBackoffMillis;
+        return this;
+    }
+
+    public int getMaxConnections(){
+        return maxConnections;
+    }
+
+    public EchoConfig setMaxConnections(int maxConnections){
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public boolean isReusePort(){
+        return reusePort;
+    }
+
+    public EchoConfig setReusePort(boolean reusePort){
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    public boolean isUdp(){
+        return udp;
+    }
+
+    public EchoConfig setUdp(boolean udp){
+        this.udp = udp;
+        return this;
+    }
+
+    public int getUdpBatch(){
+        return udpBatch;
+    }
+
+    public EchoConfig setUdpBatch(int udpBatch){
+        if(udpBatch < 1){
+            throw new IllegalArgumentException("udpBatch must be at least 1 but was " + udpBatch);
+        }
+        this.udpBatch = udpBatch;
+        return this;
+    }
+
+    public int getUdpReceiveBufferBytes(){
+        return udpReceiveBufferBytes;
+    }
+
+    public EchoConfig setUdpReceiveBufferBytes(int udpReceiveBufferBytes){
+        this.udpReceiveBufferBytes = udpReceiveBufferBytes;
+        return this;
+    }
+
+    public int getSelectorSpinThreshold(){
+        return selectorSpinThreshold;
+    }
+
+    public EchoConfig setSelectorSpinThreshold(int selectorSpinThreshold){
+        this.selectorSpinThreshold = selectorSpinThreshold;
+        return this;
+    }
+
+    public int getSelectorErrorThreshold(){
+        return selectorErrorThreshold;
+    }
+
+    public EchoConfig setSelectorErrorThreshold(int selectorErrorThreshold){
+        this.selectorErrorThreshold = selectorErrorThreshold;
+        return this;
+    }
+
+    public boolean isBroadcast(){
+        return broadcast;
+    }
+
+    public EchoConfig setBroadcast(boolean broadcast){
+        this.broadcast = broadcast;
+        return this;
+    }
+
+    public String getDefaultRoom(){
+        return defaultRoom;
+    }
+
+    public EchoConfig setDefaultRoom(String defaultRoom){
+        this.defaultRoom = defaultRoom;
+        return this;
+    }
+
+    public int getBroadcastMaxQueuedBytes(){
+        return broadcastMaxQueuedBytes;
+    }
+
+    public EchoConfig setBroadcastMaxQueuedBytes(int broadcastMaxQueuedBytes){
+        this.broadcastMaxQueuedBytes = broadcastMaxQueuedBytes;
+        return this;
+    }
+
+    public String getCaptureDir(){
+        return captureDir;
+    }
+
+    public EchoConfig setCaptureDir(String captureDir){
+        this.captureDir = captureDir;
+        return this;
+    }
+
+    public int getCaptureSegmentBytes(){
+        return captureSegmentBytes;
+    }
+
+    public EchoConfig setCaptureSegmentBytes(int captureSegmentBytes){
+        if(captureSegmentBytes < 64 * 1024){
+            throw new IllegalArgumentException("captureSegmentBytes must be at least 64 KB but was " + captureSegmentBytes);
+        }
+        this.captureSegmentBytes = captureSegmentBytes;
+        return this;
+    }
+
+    public int getCaptureMaxSegments(){
+        return captureMaxSegments;
+    }
+
+    public EchoConfig setCaptureMaxSegments(int captureMaxSegments){
+        this.captureMaxSegments = captureMaxSegments;
+        return this;
+    }
+
+    public MessageInspector getInspector(){
+        return inspector;
+    }
+
+    public EchoConfig setInspector(MessageInspector inspector){
+        this.inspector = inspector;
+        return this;
+    }
+
+    public long getPoolMaxBytes(){
+        return poolMaxBytes;
+    }
+
+    public EchoConfig setPoolMaxBytes(long poolMaxBytes){
+        this.poolMaxBytes = poolMaxBytes;
+        return this;
+    }
+
+    public Framing getFraming(){
+        return framing;
+    }
+
+    public EchoConfig setFraming(Framing framing){
+        this.framing = framing;
+        return this;
+    }
+
+    public int getMaxFrameBytes(){
+        return maxFrameBytes;
+    }
+
+    public EchoConfig setMaxFrameBytes(int maxFrameBytes){
+        this.maxFrameBytes = maxFrameBytes;
+        return this;
+    }
+
+    public int getMetricsIntervalSeconds(){
+        return metricsIntervalSeconds;
+    }
+
+    public EchoConfig setMetricsIntervalSeconds(int metricsIntervalSeconds){
+        this.metricsIntervalSeconds = metricsIntervalSeconds;
+        return this;
+    }
+
+    public boolean isMetricsDump(){
+        return metricsDump;
+    }
+
+    public EchoConfig setMetricsDump(boolean metricsDump){
+        this.metricsDump = metricsDump;
+        return this;
+    }
+}
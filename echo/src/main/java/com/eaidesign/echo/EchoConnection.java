@@ -0,0 +1,396 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: per-connection state for the Echo Server. Attached to the connection's SelectionKey and
+ |holds the queue of echoed bytes that the socket has not taken yet, and the one timeout on the
+ |worker's timing wheel that reaps the connection if it goes idle or stalls
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Direct send from the read buffer and a stateful per-connection decoder
+ 1.2  - 10182026 - Queued bytes live in buffers leased from the worker's BufferPool
+ 1.3  - 10182026 - Errors go through the asynchronous Log
+ 1.4  - 10182026 - Holds back partial frames between reads for framed messages
+ 1.5  - 10182026 - Moved into com.eaidesign.echo for the Maven build
+ 1.6  - 10182026 - Bytes out, partial writes and closes counted in EchoMetrics
+ 1.7  - 10182026 - The selector transport's EchoSession, decoding and partial frames moved up into the base
+ 1.8  - 10182026 - Idle, read and write timeouts on the worker's timing wheel
+ 1.9  - 10182026 - Key swapped for the new one when the worker rebuilds its Selector
+ 1.10 - 10182026 - Room membership and shared broadcast views queued alongside its own buffers
+ 1.11 - 10182026 - Server wide connection id, for traffic capture
+ 1.12 - 10182026 - Records its own close into the worker's TrafficCapture, whatever closed it
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class EchoConnection extends EchoSession implements TimingWheel.Task {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(); //Taken once per accepted connection
+
+    private final long id = NEXT_ID.incrementAndGet(); //Tells this connection's captured reads apart from the others'
+    private final SocketChannel socketChannel; //The client's channel
+    private SelectionKey key; //This connection's key on its worker's Selector, replaced if that Selector is rebuilt
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>(); //Buffers waiting to be written, oldest first
+    private final ArrayDeque<Broadcast> broadcasts = new ArrayDeque<Broadcast>(); //Owners of the read-only views in outbound, same order
+    private final int highWaterMark; //Stop reading once this many bytes are queued
+    private final int lowWaterMark; //Start reading again once the queue drains to this many bytes
+    private int queuedBytes; //Bytes remaining across every buffer in outbound
+    private boolean readSuspended; //True while OP_READ is off because of the high water mark
+    private final TimingWheel wheel; //The owning worker's, its now() stamps the activity below
+    private final TimingWheel.Timeout timeout; //Scheduled for the earliest deadline, which is checked again when it fires
+    private final long idleTimeoutNanos; //0 turns each of these off
+    private final long readTimeoutNanos;
+    private final long writeTimeoutNanos;
+    private long lastReadNanos; //Last read that returned bytes
+    private long lastWriteNanos; //Last write that took bytes, or when the queue last stopped being empty
+    private String room; //Broadcast mode, the room this connection is a member of
+    private Set<EchoConnection> roomMembers; //The worker's set of members of that room, which this one leaves on close
+    private TrafficCapture capture; //The worker's, when capture is on. Null otherwise
+
+    public EchoConnection(SocketChannel socketChannel, SelectionKey key, EchoConfig config, BufferPool bufferPool,
+                          EchoMetrics metrics, TimingWheel wheel){
+        super(bufferPool, metrics);
+        this.socketChannel = socketChannel;
+        this.key = key;
+        this.highWaterMark = config.getHighWaterMark();
+        this.lowWaterMark = config.getLowWaterMark();
+        this.wheel = wheel;
+        this.timeout = wheel.newTimeout(this);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeoutMillis());
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getReadTimeoutMillis());
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getWriteTimeoutMillis());
+        this.lastReadNanos = wheel.now();
+        this.lastWriteNanos = lastReadNanos;
+        armTimeout();
+    }
+
+    public long getId(){
+        return id;
+    }
+
+    /**
+     * Capture mode. The worker records this connection's reads, the connection records its own close
+     */
+    void capture(TrafficCapture capture){
+        this.capture = capture;
+    }
+
+    public SocketChannel getSocketChannel(){
+        return socketChannel;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress(){
+        return socketChannel.socket().getRemoteSocketAddress();
+    }
+
+    public int getQueuedBytes(){
+        return queuedBytes;
+    }
+
+    public boolean isReadSuspended(){
+        return readSuspended;
+    }
+
+    /**
+     * Queues a buffer leased from the worker's BufferPool to be written behind anything already pending. The buffer is
+     * owned by the queue from here on, must not be touched by the caller and goes back to the pool once written
+     */
+    @Override
+    public void enqueue(ByteBuffer buffer){
+        if(!buffer.hasRemaining()){
+            bufferPool.release(buffer);
+            return;
+        }
+        if(outbound.isEmpty()){
+            lastWriteNanos = wheel.now(); //The write timeout counts from when bytes started waiting
+        }
+        outbound.addLast(buffer);
+        queuedBytes += buffer.remaining();
+    }
+
+    /**
+     * Broadcast mode. Queues a view of the shared payload behind anything already pending and tries to write it
+     * straight away if nothing was. A member already holding more than maxQueuedBytes misses the message instead, so a
+     * reader that can't keep up costs nobody else anything and its own backlog stays bounded
+     *
+     * @return false if the message was dropped for this member
+     */
+    public boolean enqueue(Broadcast broadcast, int maxQueuedBytes) throws IOException{
+        if(queuedBytes + broadcast.size() > maxQueuedBytes){
+            return false;
+        }
+
+        boolean idle = outbound.isEmpty();
+        if(idle){
+            lastWriteNanos = wheel.now();
+        }
+        outbound.addLast(broadcast.view());
+        broadcasts.addLast(broadcast);
+        queuedBytes += broadcast.size();
+
+        if(idle){
+            flush();
+        }
+        armTimeout(); //A member that only listens has no reads to arm its write timeout
+        return true;
+    }
+
+    /**
+     * Sends bytes the caller still owns, such as the worker's read buffer. When nothing is queued ahead of them they
+     * go straight to the socket from the caller's buffer. Only what the socket doesn't take is copied, into the spare
+     * room of the last queued buffer if it fits or else a newly leased one, so the common case echoes without any
+     * allocation or copy
+     */
+    @Override
+    public void send(ByteBuffer buffer) throws IOException{
+        if(outbound.isEmpty()){
+            metrics.bytesOut.add(socketChannel.write(buffer));
+            lastWriteNanos = wheel.now();
+            if(buffer.hasRemaining()){
+                metrics.partialWrites.increment();
+            }
+        }
+
+        if(buffer.hasRemaining()){
+            int length = buffer.remaining();
+            if(!appendToTail(buffer)){
+                ByteBuffer copy = bufferPool.acquire(length);
+                copy.put(buffer);
+                copy.flip();
+                outbound.addLast(copy);
+            }
+            queuedBytes += length;
+        }
+
+        updateInterestOps();
+    }
+
+    /**
+     * Copies the bytes onto the end of the last queued buffer when it has room for all of them, which keeps a run of
+     * small echoes from each holding a buffer of their own
+     */
+    private boolean appendToTail(ByteBuffer buffer){
+        ByteBuffer tail = outbound.peekLast();
+        if(tail == null || tail.isReadOnly() || tail.capacity() - tail.limit() < buffer.remaining()){
+            return false;
+        }
+
+        int position = tail.position();
+        tail.position(tail.limit());
+        tail.limit(tail.capacity());
+        tail.put(buffer);
+        tail.limit(tail.position());
+        tail.position(position);
+        return true;
+    }
+
+    /**
+     * Writes queued buffers until the queue is empty or the socket would block. A write that takes fewer bytes than
+     * were offered means the socket's send buffer is full, so the rest stays at the head of the queue and OP_WRITE is
+     * set to finish it later. Interest ops are updated for the water marks on the way out
+     *
+     * @return true if everything queued was written
+     */
+    @Override
+    public boolean flush() throws IOException{
+        ByteBuffer head;
+
+        while((head = outbound.peekFirst()) != null){
+            int written = socketChannel.write(head);
+            queuedBytes -= written;
+            metrics.bytesOut.add(written);
+            if(written > 0){
+                lastWriteNanos = wheel.now();
+            }
+
+            if(head.hasRemaining()){
+                metrics.partialWrites.increment();
+                break; //Partial write, the socket would block
+            }
+            release(outbound.pollFirst());
+        }
+
+        updateInterestOps();
+        return outbound.isEmpty();
+    }
+
+    /**
+     * A read-only buffer in the queue is always a broadcast view, everything else was leased from the pool
+     */
+    private void release(ByteBuffer buffer){
+        if(buffer.isReadOnly()){
+            broadcasts.pollFirst().release();
+        }else{
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * OP_WRITE is only wanted while there is something queued, otherwise the Selector would report the key as
+     * writable on every pass. OP_READ is switched off past the high water mark so a client that doesn't read its
+     * echoes can't make the server buffer without limit, and back on again once the queue is under the low water mark
+     */
+    private void updateInterestOps(){
+        if(!key.isValid()){
+            return;
+        }
+
+        if(readSuspended && queuedBytes <= lowWaterMark){
+            readSuspended = false;
+        }else if(!readSuspended && queuedBytes >= highWaterMark){
+            readSuspended = true;
+        }
+
+        int ops = 0;
+        if(!readSuspended){
+            ops |= SelectionKey.OP_READ;
+        }
+        if(!outbound.isEmpty()){
+            ops |= SelectionKey.OP_WRITE;
+        }
+
+        if(key.interestOps() != ops){
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Called by the worker after every read that returned bytes. Pulls the timeout in if the read left something
+     * with a nearer deadline, a partial frame or a backlog. A deadline that only moved later is left alone and found
+     * out when the timeout fires, so a busy connection doesn't touch the wheel at all
+     */
+    public void touchRead(){
+        lastReadNanos = wheel.now();
+        armTimeout();
+    }
+
+    private void armTimeout(){
+        long deadline = nextDeadline();
+        if(deadline != Long.MAX_VALUE && (!timeout.isScheduled() || deadline < timeout.getDeadlineNanos())){
+            wheel.schedule(timeout, deadline);
+        }
+    }
+
+    /**
+     * Earliest of the deadlines that apply right now. Long.MAX_VALUE when none do
+     */
+    private long nextDeadline(){
+        long deadline = Long.MAX_VALUE;
+        if(idleTimeoutNanos > 0){
+            deadline = Math.max(lastReadNanos, lastWriteNanos) + idleTimeoutNanos;
+        }
+        if(readTimeoutNanos > 0 && hasPartialFrame() && !readSuspended){ //Not the client's fault while we aren't reading
+            deadline = Math.min(deadline, lastReadNanos + readTimeoutNanos);
+        }
+        if(writeTimeoutNanos > 0 && !outbound.isEmpty()){
+            deadline = Math.min(deadline, lastWriteNanos + writeTimeoutNanos);
+        }
+        return deadline;
+    }
+
+    /**
+     * The timeout came due. Activity since it was scheduled may have pushed the deadline out, in which case it is
+     * simply scheduled again for the new one
+     */
+    public void expired(long nowNanos){
+        if(isClosed()){
+            return;
+        }
+
+        LongAdder counter = null;
+        String reason = null;
+        if(writeTimeoutNanos > 0 && !outbound.isEmpty() && nowNanos - lastWriteNanos >= writeTimeoutNanos){
+            counter = metrics.writeTimeouts;
+            reason = "write";
+        }else if(readTimeoutNanos > 0 && hasPartialFrame() && !readSuspended && nowNanos - lastReadNanos >= readTimeoutNanos){
+            counter = metrics.readTimeouts;
+            reason = "read";
+        }else if(idleTimeoutNanos > 0 && nowNanos - Math.max(lastReadNanos, lastWriteNanos) >= idleTimeoutNanos){
+            counter = metrics.idleTimeouts;
+            reason = "idle";
+        }
+
+        if(counter == null){
+            armTimeout();
+            return;
+        }
+
+        counter.increment();
+        if(Log.isDebugEnabled()){
+            Log.debug("Closing {} after {} timeout", getRemoteAddress(), reason);
+        }
+        close();
+    }
+
+    public String getRoom(){
+        return room;
+    }
+
+    /**
+     * Called by the worker, which owns the member sets. A closed connection takes itself out of its set
+     */
+    void setRoom(String room, Set<EchoConnection> roomMembers){
+        this.room = room;
+        this.roomMembers = roomMembers;
+    }
+
+    Set<EchoConnection> getRoomMembers(){
+        return roomMembers;
+    }
+
+    /**
+     * The worker rebuilt its Selector and this connection was registered with the new one, same ops and attachment
+     */
+    void rekey(SelectionKey key){
+        this.key = key;
+    }
+
+    /**
+     * Cancels the key, leaves its room, closes the channel and hands whatever was still queued back to the pool or
+     * the broadcast it came from. Every close comes through here, the client's, a timeout, a failed write or the
+     * worker shutting down, so this is where a capture records it
+     */
+    @Override
+    protected void closeTransport(){
+        if(capture != null){
+            capture.recordClose(id, System.nanoTime());
+        }
+        wheel.cancel(timeout);
+        key.cancel();
+        if(roomMembers != null){
+            roomMembers.remove(this);
+            roomMembers = null;
+        }
+        ByteBuffer buffer;
+        while((buffer = outbound.pollFirst()) != null){
+            release(buffer);
+        }
+        queuedBytes = 0;
+        try{
+            socketChannel.close();
+        }catch(IOException ie){
+            Log.debug("Error closing connection: {}", ie);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: what the Echo Server does with the bytes it reads. Every transport calls the same
+ |handler, so the selector loops and the thread per connection server answer exactly alike
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface EchoHandler {
+
+    /**
+     * Called with whatever one read returned, ready to be read from. The buffer belongs to the transport and is reused
+     * for the next read, so anything kept past this call has to be copied or sent with session.send(). A handler is
+     * only ever called from one thread at a time but may serve many sessions, so per message state lives on the
+     * session
+     */
+    void onRead(EchoSession session, ByteBuffer in) throws IOException;
+}
@@ -0,0 +1,326 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: counters and gauges for one Echo Server. Updated from the accept, read and echo paths
+ |with striped LongAdders so the workers never contend on a lock or a single cache line. Published
+ |as a platform MBean and, every interval, written to the Log as a plain text snapshot
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Idle, read and write timeouts counted
+ 1.2  - 10182026 - Connections turned away by the connection limit
+ 1.3  - 10182026 - UDP datagrams in, out, dropped and per second
+ 1.4  - 10182026 - Selector rebuilds
+ 1.5  - 10182026 - Broadcasts published, delivered and dropped for slow members
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class EchoMetrics implements EchoMetricsMBean {
+
+    private static final long HIGHEST_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    final LongAdder accepted = new LongAdder();
+    final LongAdder closed = new LongAdder();
+    final LongAdder rejected = new LongAdder(); //Reset on accept because of the connection limit, never counted as accepted
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder messages = new LongAdder(); //Reads that produced an echo
+    final LongAdder wakeups = new LongAdder(); //Worker select() calls that returned
+    final LongAdder selectedKeys = new LongAdder(); //Keys handed back by those select() calls
+    final LongAdder selectorRebuilds = new LongAdder(); //Selectors swapped for a fresh one after spinning or failing
+    final LongAdder partialWrites = new LongAdder(); //Writes the socket only took part of
+    final LongAdder idleTimeouts = new LongAdder(); //Connections closed for doing nothing
+    final LongAdder readTimeouts = new LongAdder(); //Connections closed partway through a message
+    final LongAdder writeTimeouts = new LongAdder(); //Connections closed for not taking their echoes
+    final LongAdder datagramsIn = new LongAdder(); //UDP mode
+    final LongAdder datagramsOut = new LongAdder();
+    final LongAdder datagramsDropped = new LongAdder(); //Echoes the socket couldn't take or couldn't send
+    final LongAdder broadcasts = new LongAdder(); //Broadcast mode, messages published to a room
+    final LongAdder broadcastDeliveries = new LongAdder(); //Copies of those queued for a member, each a view of one shared buffer
+    final LongAdder broadcastsDropped = new LongAdder(); //Skipped for a member whose backlog was already too big
+
+    private final List<AtomicHistogram> latencyStripes = new CopyOnWriteArrayList<AtomicHistogram>(); //One per worker
+    private final List<BufferPool> bufferPools = new CopyOnWriteArrayList<BufferPool>(); //One per worker
+    private volatile Histogram lastInterval = new Histogram(HIGHEST_LATENCY_NANOS); //Latencies of the last interval
+    private volatile double datagramsPerSecond; //Datagrams received per second over the last interval
+
+    private final long intervalMillis; //How often the latency window rolls over(-Decho.metrics.intervalSeconds)
+    private final boolean dump; //Whether each interval is also written to the Log(-Decho.metrics.dump)
+    private ObjectName objectName; //Set while registered with the platform MBean server
+    private Thread intervalThread;
+
+    public EchoMetrics(EchoConfig config){
+        this.intervalMillis = TimeUnit.SECONDS.toMillis(config.getMetricsIntervalSeconds());
+        this.dump = config.isMetricsDump();
+    }
+
+    /**
+     * Gives a worker its own latency histogram to record into, so workers never write to the same counts
+     */
+    public AtomicHistogram newLatencyStripe(){
+        AtomicHistogram stripe = new AtomicHistogram(HIGHEST_LATENCY_NANOS);
+        latencyStripes.add(stripe);
+        return stripe;
+    }
+
+    public void addBufferPool(BufferPool bufferPool){
+        bufferPools.add(bufferPool);
+    }
+
+    /**
+     * Publishes these metrics as an MBean keyed by the server's port and starts the interval thread
+     */
+    public void start(int port){
+        try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("com.eaidesign.echo:type=EchoServer,port=" + port);
+            if(server.isRegistered(objectName)){
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        }catch(JMException je){
+            Log.warn("Could not register the metrics MBean", je);
+            objectName = null;
+        }
+
+        if(intervalMillis > 0){
+            intervalThread = new Thread(new Runnable(){
+                public void run(){
+                    rollIntervals();
+                }
+            }, "echo-metrics");
+            intervalThread.setDaemon(true);
+            intervalThread.start();
+        }
+    }
+
+    public void stop(){
+        if(intervalThread != null){
+            intervalThread.interrupt();
+        }
+        if(objectName != null){
+            try{
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }catch(JMException je){
+                Log.debug("Could not unregister the metrics MBean: {}", je);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Every interval, empties the workers' latency stripes into a fresh histogram that the MBean reports from, works
+     * out the datagram rate, and logs a snapshot if dumping is on
+     */
+    private void rollIntervals(){
+        long lastDatagrams = datagramsIn.sum();
+        long lastNanos = System.nanoTime();
+
+        while(!Thread.currentThread().isInterrupted()){
+            try{
+                Thread.sleep(intervalMillis);
+            }catch(InterruptedException ie){
+                return;
+            }
+
+            Histogram interval = new Histogram(HIGHEST_LATENCY_NANOS);
+            for(AtomicHistogram stripe : latencyStripes){
+                stripe.addTo(interval, true);
+            }
+            lastInterval = interval;
+
+            long datagrams = datagramsIn.sum();
+            long now = System.nanoTime();
+            datagramsPerSecond = (datagrams - lastDatagrams) * 1e9 / Math.max(1, now - lastNanos);
+            lastDatagrams = datagrams;
+            lastNanos = now;
+
+            if(dump){
+                Log.info("{}", dump());
+            }
+        }
+    }
+
+    public long getAcceptedConnections(){
+        return accepted.sum();
+    }
+
+    public long getClosedConnections(){
+        return closed.sum();
+    }
+
+    public long getRejectedConnections(){
+        return rejected.sum();
+    }
+
+    public long getActiveConnections(){
+        long closedCount = closed.sum(); //Read before accepted so a close racing an accept can't make this negative
+        return Math.max(0, accepted.sum() - closedCount);
+    }
+
+    public long getBytesIn(){
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut(){
+        return bytesOut.sum();
+    }
+
+    public long getMessages(){
+        return messages.sum();
+    }
+
+    public long getSelectorWakeups(){
+        return wakeups.sum();
+    }
+
+    public double getKeysPerWakeup(){
+        long wakeupCount = wakeups.sum();
+        return wakeupCount == 0 ? 0.0 : (double) selectedKeys.sum() / wakeupCount;
+    }
+
+    public long getBroadcasts(){
+        return broadcasts.sum();
+    }
+
+    public long getBroadcastDeliveries(){
+        return broadcastDeliveries.sum();
+    }
+
+    public long getBroadcastsDropped(){
+        return broadcastsDropped.sum();
+    }
+
+    public long getSelectorRebuilds(){
+        return selectorRebuilds.sum();
+    }
+
+    public long getPartialWrites(){
+        return partialWrites.sum();
+    }
+
+    public long getIdleTimeouts(){
+        return idleTimeouts.sum();
+    }
+
+    public long getReadTimeouts(){
+        return readTimeouts.sum();
+    }
+
+    public long getWriteTimeouts(){
+        return writeTimeouts.sum();
+    }
+
+    public long getDatagramsIn(){
+        return datagramsIn.sum();
+    }
+
+    public long getDatagramsOut(){
+        return datagramsOut.sum();
+    }
+
+    public long getDatagramsDropped(){
+        return datagramsDropped.sum();
+    }
+
+    public double getDatagramsPerSecond(){
+        return datagramsPerSecond;
+    }
+
+    public long getLatencySamples(){
+        return lastInterval.getTotalCount();
+    }
+
+    public double getLatencyP50Micros(){
+        return lastInterval.getValueAtPercentile(50.0) / 1e3;
+    }
+
+    public double getLatencyP99Micros(){
+        return lastInterval.getValueAtPercentile(99.0) / 1e3;
+    }
+
+    public double getLatencyP999Micros(){
+        return lastInterval.getValueAtPercentile(99.9) / 1e3;
+    }
+
+    public double getLatencyMaxMicros(){
+        return lastInterval.getMax() / 1e3;
+    }
+
+    public long getPoolAllocatedBytes(){
+        long total = 0;
+        for(BufferPool bufferPool : bufferPools){
+            total += bufferPool.getAllocatedBytes();
+        }
+        return total;
+    }
+
+    public long getPoolLeasedBytes(){
+        long total = 0;
+        for(BufferPool bufferPool : bufferPools){
+            total += bufferPool.getLeasedBytes();
+        }
+        return total;
+    }
+
+    public long getPoolMisses(){
+        long total = 0;
+        for(BufferPool bufferPool : bufferPools){
+            total += bufferPool.getMisses();
+        }
+        return total;
+    }
+
+    public long getPoolOverflows(){
+        long total = 0;
+        for(BufferPool bufferPool : bufferPools){
+            total += bufferPool.getOverflows();
+        }
+        return total;
+    }
+
+    public long getLogEventsDropped(){
+        return Log.getDropped();
+    }
+
+    /**
+     * One line snapshot of everything, for the log or for an operator invoking it over JMX
+     */
+    public String dump(){
+        return String.format(Locale.ROOT,
+                "metrics connections[accepted=%d closed=%d active=%d rejected=%d] bytes[in=%d out=%d] messages=%d"
+                        + " select[wakeups=%d keysPerWakeup=%.2f rebuilds=%d] partialWrites=%d timeouts[idle=%d read=%d write=%d]"
+                        + " udp[in=%d out=%d dropped=%d pps=%.0f] broadcast[in=%d delivered=%d dropped=%d]"
+                        + " latencyUs[n=%d p50=%.1f p99=%.1f p99.9=%.1f max=%.1f]"
+                        + " pool[allocated=%d leased=%d misses=%d overflows=%d] logDropped=%d",
+                getAcceptedConnections(), getClosedConnections(), getActiveConnections(), getRejectedConnections(),
+                getBytesIn(), getBytesOut(), getMessages(), getSelectorWakeups(), getKeysPerWakeup(),
+                getSelectorRebuilds(), getPartialWrites(),
+                getIdleTimeouts(), getReadTimeouts(), getWriteTimeouts(), getDatagramsIn(), getDatagramsOut(),
+                getDatagramsDropped(), getDatagramsPerSecond(),
+                getBroadcasts(), getBroadcastDeliveries(), getBroadcastsDropped(), getLatencySamples(), getLatencyP50Micros(),
+                getLatencyP99Micros(), getLatencyP999Micros(), getLatencyMaxMicros(),
+                getPoolAllocatedBytes(), getPoolLeasedBytes(), getPoolMisses(), getPoolOverflows(),
+                getLogEventsDropped());
+    }
+}
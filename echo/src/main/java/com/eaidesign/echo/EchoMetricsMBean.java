@@ -0,0 +1,97 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: the management interface EchoMetrics is published under on the platform MBean server.
+ |Shows up in JConsole/VisualVM as com.eaidesign.echo:type=EchoServer,port=<port>
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Connections closed by a timeout
+ 1.2  - 10182026 - Rejected connections
+ 1.3  - 10182026 - UDP datagrams
+ 1.4  - 10182026 - Selector rebuilds
+ 1.5  - 10182026 - Broadcasts
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+public interface EchoMetricsMBean {
+
+    long getAcceptedConnections();
+
+    long getClosedConnections();
+
+    long getActiveConnections();
+
+    long getRejectedConnections();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getMessages();
+
+    long getSelectorWakeups();
+
+    double getKeysPerWakeup();
+
+    long getSelectorRebuilds();
+
+    long getPartialWrites();
+
+    //Connections closed by the idle, read or write timeout
+    long getIdleTimeouts();
+
+    long getReadTimeouts();
+
+    long getWriteTimeouts();
+
+    //UDP mode. Per second is over the last completed interval
+    long getDatagramsIn();
+
+    long getDatagramsOut();
+
+    long getDatagramsDropped();
+
+    double getDatagramsPerSecond();
+
+    //Broadcast mode
+    long getBroadcasts();
+
+    long getBroadcastDeliveries();
+
+    long getBroadcastsDropped();
+
+    //Processing latency over the last completed interval, in microseconds
+    long getLatencySamples();
+
+    double getLatencyP50Micros();
+
+    double getLatencyP99Micros();
+
+    double getLatencyP999Micros();
+
+    double getLatencyMaxMicros();
+
+    //Direct buffer pools, summed over every worker
+    long getPoolAllocatedBytes();
+
+    long getPoolLeasedBytes();
+
+    long getPoolMisses();
+
+    long getPoolOverflows();
+
+    long getLogEventsDropped();
+
+    String dump();
+}
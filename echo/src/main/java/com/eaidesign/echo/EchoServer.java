@@ -0,0 +1,428 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: this application is still apart of the chattyKathy application as it will also have
+ |echo functionality
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 02102015 - Initial Creation
+ 1.1  - 10182026 - Acceptor hands connections to N worker event loops(EchoWorker)
+ 1.2  - 10182026 - Console output goes through the asynchronous Log
+ 1.3  - 10182026 - Moved into com.eaidesign.echo for the Maven build, shutdown() and getPort()
+ 1.4  - 10182026 - EchoMetrics counters published as an MBean
+ 1.5  - 10182026 - The selector transport, main() starts whichever transport -Decho.transport names
+ 1.6  - 10182026 - Batched accepts, listen backlog, connection limit and SO_REUSEPORT listeners per worker
+ 1.7  - 10182026 - UDP echo on the same port, handled by the workers
+ 1.8  - 10182026 - Acceptor Selector rebuilt when it spins on empty wakeups or the loop keeps failing
+ 1.9  - 10182026 - Broadcast mode, the workers share one set of rooms
+ 1.10 - 10182026 - Traffic capture, one directory per run under -Decho.capture.dir
+ 1.11 - 10182026 - A failed accept pauses accepting for a while instead of failing the loop
+ 1.12 - 10182026 - Only select() failing counts toward a Selector rebuild
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.lang.*;
+
+public class EchoServer implements EchoTransport{
+
+    private InetAddress hostAddress; //IP Address of server
+    private ServerSocketChannel serverChannel; //A socket for the server to connect
+    private volatile Selector selector; //A Selector object for multiplexing. Only watches for new connections
+    private int port; //Port used to connect the sockets
+    private final EchoConfig config; //Tunables for this server
+    private final EchoWorker[] workers; //Worker event loops that own the accepted connections
+    private final EchoMetrics metrics; //Counters shared by the acceptor and every worker
+    private int nextWorker; //Round robin index into workers, only touched by the acceptor thread
+    private boolean sharded; //Each worker accepts on its own SO_REUSEPORT listener and this thread only waits
+    private volatile boolean running = true; //Cleared by shutdown()
+    private SelectorGuard guard; //Decides when the acceptor's Selector has gone bad and needs replacing
+    private long acceptResumeNanos; //While accepting is paused after a failure, when to start again. 0 when not paused
+
+    /**
+     * Main method. Launches thread with instance of EchoServer and moves control throughout program
+     *
+     */
+    public static void main(String args[]){
+
+        Log.info("Hello and welcome to EAI Design's Echo Server application"); //Status message for log/console
+
+        try{
+            EchoConfig config = new EchoConfig();
+            int port = Integer.getInteger("echo.port", 10000);
+            new Thread(config.getTransport().newServer(null, port, config), "echo-acceptor").start(); //Starts a new thread which launches the configured server
+        }catch(IOException ie) {
+            Log.error("Could not start the server", ie);
+        }catch(Exception e){
+            Log.error("Could not start the server", e);
+        }
+    }
+
+    /**
+     * Abstraction for commonly used(and mandatory) parts of a Client/Server paradigm. Trying to learn about reusable
+     *code
+     */
+    public EchoServer(InetAddress hostAddress, int port )throws Exception{
+        this(hostAddress, port, new EchoConfig());
+    }
+
+    /**
+     * Same as above but with explicit tunables. One EchoWorker is created per configured worker, each with its own
+     * Selector and buffers, so the server scales with the number of cores rather than being stuck on one
+     */
+    public EchoServer(InetAddress hostAddress, int port, EchoConfig config)throws Exception{
+        this.hostAddress = hostAddress;
+        this.port = port;
+        this.config = config;
+        this.metrics = new EchoMetrics(config);
+        this.workers = new EchoWorker[config.getWorkers()];
+        Rooms rooms = config.isBroadcast() ? new Rooms(workers.length, metrics) : null;
+        for(int i = 0; i < workers.length; i++){
+            workers[i] = new EchoWorker(i, config, metrics, rooms);
+        }
+        this.selector = this.initSelector();
+        this.guard = new SelectorGuard("Acceptor", config, metrics);
+    }
+
+    /**
+     * Method to create a new Selector for the Server. This is how we create a multiplexing system. The selector
+     * created by this method will have an empty key set until the last line of the method where the register() method
+     * is called and the server channel is added. The key is set to an OP_ACCEPT to wait for a new connection
+     */
+    private Selector initSelector() throws Exception{
+        //Creates a new selector using the system's default provider to do so
+        Selector socketSelector  = SelectorProvider.provider().openSelector();
+
+        //Sets IP Address of current server system from OS
+        this.hostAddress = InetAddress.getLoopbackAddress(); //hostAddress.getLocalHost();
+        InetSocketAddress inetSockAddr = new InetSocketAddress(this.hostAddress, this.port);
+
+        //Creates a new non-blocking server socket channel bound to the specified port and IP
+        this.sharded = config.isReusePort() && workers.length > 1;
+        this.serverChannel = openListener(inetSockAddr, config, sharded);
+        if(sharded && reusePortOption(serverChannel) == null){
+            Log.warn("SO_REUSEPORT is not supported here, accepting on one listener");
+            sharded = false;
+        }
+
+        if(sharded){
+            //The first listener picked the port if it was 0, the rest share it. The kernel hashes each new
+            //connection to one of them so every worker accepts its own share without this thread in the way
+            InetSocketAddress shared = new InetSocketAddress(this.hostAddress, serverChannel.socket().getLocalPort());
+            workers[0].listen(serverChannel);
+            for(int i = 1; i < workers.length; i++){
+                workers[i].listen(openListener(shared, config, true));
+            }
+            Log.info("Echo Test Server initialized on {} with {} SO_REUSEPORT listeners...", shared, workers.length);
+        }else{
+            //Registers this server channel with the Selector and advises an interest in accepting new connections
+            Log.info("Echo Test Server initialized on {}...", inetSockAddr);
+            serverChannel.register(socketSelector, SelectionKey.OP_ACCEPT);
+        }
+
+        if(config.getCaptureDir() != null){
+            initCapture();
+        }
+
+        if(config.isUdp()){
+            initDatagrams(new InetSocketAddress(this.hostAddress, serverChannel.socket().getLocalPort()));
+        }
+
+        Log.info("Waiting for connections...");
+        return socketSelector; //Returns new Selector object
+    }
+
+    /**
+     * UDP on the same port number as TCP. A datagram socket has nothing to accept, so it goes straight onto a
+     * worker's Selector. Sharded, every worker gets its own SO_REUSEPORT socket and the kernel spreads senders over
+     * them, otherwise the first worker echoes all of it
+     */
+    private void initDatagrams(InetSocketAddress address) throws IOException{
+        DatagramChannel first = openDatagramChannel(address, config, sharded);
+        boolean shardDatagrams = sharded && reusePortOption(first) != null;
+
+        workers[0].echoDatagrams(first);
+        if(shardDatagrams){
+            for(int i = 1; i < workers.length; i++){
+                workers[i].echoDatagrams(openDatagramChannel(address, config, true));
+            }
+        }
+        Log.info("UDP echo on {} with {} sockets...", address, shardDatagrams ? workers.length : 1);
+    }
+
+    /**
+     * Every run records into a directory of its own so an earlier capture is never overwritten. Each worker writes its
+     * own segment files, the replay merges them back together by time
+     */
+    private void initCapture() throws IOException{
+        File directory = new File(config.getCaptureDir(), "capture-" + System.currentTimeMillis());
+        if(!directory.mkdirs()){
+            throw new IOException("Could not create capture directory " + directory);
+        }
+        for(EchoWorker worker : workers){
+            worker.capture(new TrafficCapture(directory, worker.getId(), config));
+        }
+        Log.info("Capturing client traffic to {}", directory);
+    }
+
+    static DatagramChannel openDatagramChannel(InetSocketAddress address, EchoConfig config, boolean reusePort)
+            throws IOException{
+        DatagramChannel channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        if(config.getUdpReceiveBufferBytes() > 0){
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getUdpReceiveBufferBytes());
+        }
+        SocketOption<Boolean> option = reusePort ? reusePortOption(channel) : null;
+        if(option != null){
+            channel.setOption(option, true);
+        }
+        channel.bind(address);
+        return channel;
+    }
+
+    /**
+     * Opens a non-blocking listener with the configured backlog, optionally with SO_REUSEPORT set first so several
+     * listeners can share the port
+     */
+    static ServerSocketChannel openListener(InetSocketAddress address, EchoConfig config, boolean reusePort)
+            throws IOException{
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.configureBlocking(false);
+        SocketOption<Boolean> option = reusePort ? reusePortOption(listener) : null;
+        if(option != null){
+            listener.setOption(option, true);
+        }
+        listener.bind(address, config.getBacklog());
+        return listener;
+    }
+
+    /**
+     * StandardSocketOptions.SO_REUSEPORT only exists from Java 9 on, so it is found by name among the options the
+     * channel says it supports. Null where the OS or the JDK doesn't have it
+     */
+    @SuppressWarnings("unchecked")
+    static SocketOption<Boolean> reusePortOption(NetworkChannel channel){
+        for(SocketOption<?> option : channel.supportedOptions()){
+            if("SO_REUSEPORT".equals(option.name()) && option.type() == Boolean.class){
+                return (SocketOption<Boolean>) option;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Admission check for a channel that was just accepted. Past the connection limit it is reset straight away
+     * rather than left in the listen queue, so the client finds out at once instead of retrying its SYN
+     *
+     * @return true if the connection may be served, counted as accepted
+     */
+    static boolean admit(NetworkChannel socketChannel, EchoConfig config, EchoMetrics metrics){
+        int maxConnections = config.getMaxConnections();
+        if(maxConnections > 0 && metrics.getActiveConnections() >= maxConnections){
+            metrics.rejected.increment();
+            try{
+                socketChannel.setOption(StandardSocketOptions.SO_LINGER, 0); //RST, and no TIME_WAIT left behind
+                socketChannel.close();
+            }catch(IOException ignored){
+            }
+            return false;
+        }
+        metrics.accepted.increment();
+        return true;
+    }
+
+    /**
+     * The heart and soul of the Server program logic. Starts the worker event loops and then runs an infinite loop
+     * on the acceptor Selector. Every accepted connection is handed to a worker which does all of its reading and
+     * echoing from then on, so this thread does nothing but accept
+     */
+    public void run(){
+        metrics.start(getPort());
+
+        //Java has no API for pinning a thread to a core. One thread per worker and the OS scheduler spreads them out
+        for(EchoWorker worker : workers){
+            new Thread(worker, "echo-worker-" + worker.getId()).start();
+        }
+
+        Log.info("Waiting with {} workers...", workers.length);
+
+        //When sharded nothing is registered here and select() just blocks until shutdown() wakes it
+
+        while (running){
+            try{
+                long selectNanos = System.nanoTime();
+                long timeoutMillis = acceptResumeNanos == 0 ? 0
+                        : Math.max(1, TimeUnit.NANOSECONDS.toMillis(acceptResumeNanos - selectNanos));
+                if(!select(timeoutMillis)){//Wait for an event on one of the registered channels
+                    continue;
+                }
+                if(!running){
+                    break; //Woken by shutdown()
+                }
+                if(acceptResumeNanos != 0 && System.nanoTime() - acceptResumeNanos >= 0){
+                    resumeAccepting();
+                }
+                if(guard.selected(this.selector.selectedKeys().size(), selectNanos, timeoutMillis)){
+                    rebuildSelector();
+                    continue;
+                }
+
+                Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();//Creates a key iterator object to cycle
+
+                //Cycle through the queue of keys from the selector
+                while(selectedKeys.hasNext()){
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();//Removes the current key so it is not processed again
+
+                    //Check the event type of the current key and use the appropriate method as long as key is valid
+                    if(!key.isValid()){
+                        Log.debug("This key was not valid...");
+                        continue; //If the key IS NOT valid breaks out of loop
+                    }
+
+                    if(key.isAcceptable()){
+                        this.accept(key); //Are we connecting?
+                    }
+                }
+            }catch (Exception e){
+                Log.error("Acceptor loop failed", e); //Not the Selector's fault, so no rebuild
+            }
+        }
+
+        try{
+            serverChannel.close();
+            selector.close();
+        }catch(IOException ie){
+            Log.warn("Error closing the listener", ie);
+        }
+        metrics.stop();
+        Log.info("Echo Test Server stopped");
+    }
+
+    /**
+     * Waits on the Selector, 0 for no timeout. A failure here is the only one that counts toward replacing it
+     *
+     * @return false if select() failed and the pass should start over
+     */
+    private boolean select(long timeoutMillis){
+        try{
+            this.selector.select(timeoutMillis);
+            guard.passed();
+            return true;
+        }catch(IOException ie){
+            if(guard.failed(ie)){
+                rebuildSelector();
+            }
+            return false;
+        }
+    }
+
+    private void rebuildSelector(){
+        try{
+            selector = guard.rebuild(selector);
+        }catch(IOException ie){
+            Log.error("Acceptor could not open a new Selector", ie); //Keeps the old one and tries again later
+        }
+    }
+
+    /**
+     * Out of file descriptors the listen queue stays full and the listener stays ready, so trying again straight away
+     * would only spin. OP_ACCEPT is switched off until the backoff is over and connections wait in the queue meanwhile
+     */
+    private void pauseAccepting(SelectionKey key, IOException cause){
+        key.interestOps(0);
+        acceptResumeNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getAcceptBackoffMillis());
+        Log.warn("Accept failed, pausing accepts for {} ms: {}", config.getAcceptBackoffMillis(), cause);
+    }
+
+    private void resumeAccepting(){
+        acceptResumeNanos = 0;
+        SelectionKey key = serverChannel.keyFor(selector); //Not the key paused, the Selector may have been rebuilt since
+        if(key != null && key.isValid()){
+            key.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    /**
+     * The port the server is listening on. Useful when it was created with port 0 and the OS picked one
+     */
+    public int getPort(){
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public EchoMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Stops accepting, then tells every worker to close its connections and stop. Returns without waiting for the
+     * threads to finish
+     */
+    public void shutdown(){
+        running = false;
+        selector.wakeup();
+        for(EchoWorker worker : workers){
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Accepts pending connections and hands each to the next worker in round robin order. The worker configures the
+     * channel and registers it with its own Selector for READ operations. A storm of connections is drained a batch
+     * at a time, the rest stay queued and the key stays ready for the next pass. accept() returns null once the
+     * queue is empty. A failed accept ends the batch and pauses accepting rather than failing the loop
+     */
+    public void accept(SelectionKey key){
+        ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
+
+        for(int i = 0; i < config.getAcceptBatch(); i++){
+            SocketChannel socketChannel;
+            try{
+                socketChannel = serverSocketChannel.accept();
+            }catch(IOException ie){
+                pauseAccepting(key, ie);
+                return;
+            }
+            if(socketChannel == null){
+                break; //Nothing left to accept
+            }
+            if(!admit(socketChannel, config, metrics)){
+                continue;
+            }
+
+            //Logs a status message of a connection
+            if(Log.isDebugEnabled()){
+                Log.debug("Received an incoming connection from {}", socketChannel.socket().getRemoteSocketAddress());
+            }
+
+            EchoWorker worker = workers[nextWorker];
+            nextWorker = (nextWorker + 1) % workers.length;
+
+            worker.register(socketChannel);
+        }
+    }
+}
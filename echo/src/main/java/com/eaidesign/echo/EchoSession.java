@@ -0,0 +1,207 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: what an EchoHandler sees of a connection, whichever transport is carrying it. Holds the
+ |state that belongs to the protocol rather than the transport: the text decoder and its carry over
+ |and any partial frame held back between reads. Subclasses decide how bytes actually get written
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation, decoding and partial frames pulled up out of EchoConnection
+ 1.1  - 10182026 - hasPartialFrame() for the read timeout
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+public abstract class EchoSession {
+
+    protected final BufferPool bufferPool; //Queued and held back buffers are leased from and returned to this
+    protected final EchoMetrics metrics; //Server wide counters
+    private boolean closed; //Set by close() so a session is only counted closed once
+    private CharsetDecoder decoder; //Created the first time this connection's bytes need to be read as text
+    private ByteBuffer undecoded; //Leading bytes of a character split across two reads
+    private ByteBuffer partialFrame; //Start of a framed message whose remaining bytes haven't arrived yet, leased
+
+    protected EchoSession(BufferPool bufferPool, EchoMetrics metrics){
+        this.bufferPool = bufferPool;
+        this.metrics = metrics;
+    }
+
+    public BufferPool getBufferPool(){
+        return bufferPool;
+    }
+
+    /**
+     * The client's address, or null if it can't be had any more
+     */
+    public abstract SocketAddress getRemoteAddress();
+
+    /**
+     * Sends bytes the caller still owns, such as a read buffer. The caller may reuse the buffer as soon as this
+     * returns, so whatever can't be written right away has to be copied
+     */
+    public abstract void send(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Queues a buffer leased from getBufferPool() to be written behind anything already pending. The buffer belongs
+     * to the session from here on and goes back to the pool once written
+     */
+    public abstract void enqueue(ByteBuffer buffer);
+
+    /**
+     * Writes as much of what has been queued as the transport will take
+     *
+     * @return true if everything queued was written
+     */
+    public abstract boolean flush() throws IOException;
+
+    /**
+     * Closes the underlying channel and releases anything queued. Only ever called once
+     */
+    protected abstract void closeTransport();
+
+    public boolean isClosed(){
+        return closed;
+    }
+
+    /**
+     * True while the start of a framed message is held back waiting for the rest of it
+     */
+    public boolean hasPartialFrame(){
+        return partialFrame != null;
+    }
+
+    /**
+     * Decodes a read's worth of bytes without consuming them from the caller's buffer. The decoder is kept per
+     * connection and a multi-byte character cut off at the end of a read is carried over to the next call rather than
+     * being mangled. Malformed input is replaced, not thrown, since it is only being looked at
+     */
+    public CharBuffer decode(ByteBuffer bytes) throws CharacterCodingException{
+        if(decoder == null){
+            decoder = newDecoder();
+        }
+
+        ByteBuffer in = bytes.duplicate();
+        if(undecoded != null && undecoded.position() > 0){
+            undecoded.flip();
+            ByteBuffer joined = ByteBuffer.allocate(undecoded.remaining() + in.remaining());
+            joined.put(undecoded).put(in);
+            joined.flip();
+            undecoded.clear();
+            in = joined;
+        }
+
+        CharBuffer out = CharBuffer.allocate((int) Math.ceil(in.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+        CoderResult result = decoder.decode(in, out, false);
+        if(result.isError()){
+            result.throwException();
+        }
+
+        //Anything left over is the start of a character whose remaining bytes haven't arrived yet
+        if(in.hasRemaining()){
+            if(undecoded == null || undecoded.capacity() < in.remaining()){
+                undecoded = ByteBuffer.allocate(Math.max(16, in.remaining()));
+            }
+            undecoded.put(in);
+        }
+
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Decodes one whole framed message without consuming it from the caller's buffer. Unlike decode() nothing is
+     * carried over, a frame always ends on a message boundary
+     */
+    public CharBuffer decodeFrame(ByteBuffer payload) throws CharacterCodingException{
+        if(decoder == null){
+            decoder = newDecoder();
+        }
+        decoder.reset();
+        return decoder.decode(payload.duplicate());
+    }
+
+    /**
+     * Puts the bytes of a new read behind whatever was held back from the last one by holdPartialFrame(). Returns the
+     * read buffer itself when nothing was held back, otherwise the held back buffer, grown if need be, with the new
+     * bytes appended. Either way the result is ready to be read from
+     */
+    public ByteBuffer joinPartialFrame(ByteBuffer bytes){
+        if(partialFrame == null){
+            return bytes;
+        }
+
+        int needed = partialFrame.remaining() + bytes.remaining();
+        if(partialFrame.capacity() < needed){
+            //Doubles so a large frame arriving in small reads isn't copied over and over
+            ByteBuffer bigger = bufferPool.acquire(Math.max(needed, partialFrame.capacity() * 2));
+            bigger.put(partialFrame);
+            bufferPool.release(partialFrame);
+            partialFrame = bigger;
+        }else{
+            partialFrame.compact();
+        }
+
+        partialFrame.put(bytes);
+        partialFrame.flip();
+        return partialFrame;
+    }
+
+    /**
+     * Keeps whatever is left in the buffer, the start of a frame that isn't complete yet, until the next read. The
+     * buffer is either the one joinPartialFrame() returned or the read buffer, which is copied from since the caller
+     * reuses it
+     */
+    public void holdPartialFrame(ByteBuffer in){
+        if(!in.hasRemaining()){
+            bufferPool.release(partialFrame);
+            partialFrame = null;
+        }else if(in == partialFrame){
+            partialFrame.compact();
+            partialFrame.flip();
+        }else{
+            partialFrame = bufferPool.acquire(in.remaining());
+            partialFrame.put(in);
+            partialFrame.flip();
+        }
+    }
+
+    private static CharsetDecoder newDecoder(){
+        return Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Closes the session once, counting it in the metrics and handing any held back frame to the pool
+     */
+    public void close(){
+        if(closed){
+            return;
+        }
+        closed = true;
+        metrics.closed.increment();
+
+        closeTransport();
+        bufferPool.release(partialFrame);
+        partialFrame = null;
+    }
+}
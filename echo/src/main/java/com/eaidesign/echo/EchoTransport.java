@@ -0,0 +1,35 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: what every kind of Echo Server looks like from the outside. Bound when constructed,
+ |serving once run() is started on a thread and stopped with shutdown()
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+public interface EchoTransport extends Runnable {
+
+    /**
+     * The port the server is listening on. Useful when it was created with port 0 and the OS picked one
+     */
+    int getPort();
+
+    EchoMetrics getMetrics();
+
+    /**
+     * Stops accepting and closes every connection. Returns without waiting for the threads to finish
+     */
+    void shutdown();
+}
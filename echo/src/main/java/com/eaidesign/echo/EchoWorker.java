@@ -0,0 +1,571 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: a worker event loop for the Echo Server. The acceptor thread hands each new connection
+ |to one of these and from then on every read and echo for that connection happens here
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Per-connection outbound queue flushed on OP_WRITE with water mark backpressure
+ 1.2  - 10182026 - Binary echo straight from the read buffer, text decoding only for text mode or an inspector
+ 1.3  - 10182026 - Direct buffers leased from a per-worker BufferPool
+ 1.4  - 10182026 - Per-packet console output replaced with level gated calls to the asynchronous Log
+ 1.5  - 10182026 - Framed mode: many pipelined frames per read, partial frames carried to the next read
+ 1.6  - 10182026 - Moved into com.eaidesign.echo for the Maven build, shutdown()
+ 1.7  - 10182026 - Bytes, wakeups, keys per wakeup and per read latency recorded into EchoMetrics
+ 1.8  - 10182026 - Echo logic moved to DefaultEchoHandler so other transports can share it
+ 1.9  - 10182026 - Timing wheel advanced from the loop to reap idle and stalled connections
+ 1.10 - 10182026 - Accepts on its own SO_REUSEPORT listener when the server is sharded
+ 1.11 - 10182026 - Echoes UDP datagrams from a DatagramChannel registered next to its connections
+ 1.12 - 10182026 - Selector rebuilt when select() spins on empty wakeups or the loop keeps failing
+ 1.13 - 10182026 - Broadcast mode: the members it owns of each room, and broadcasts handed over by other workers
+ 1.14 - 10182026 - Records every read into its own TrafficCapture when capture is on
+ 1.15 - 10182026 - A failed sharded accept pauses OP_ACCEPT on the timing wheel instead of retrying every pass
+ 1.16 - 10182026 - Only select() failing counts toward a Selector rebuild
+ 1.17 - 10182026 - Connections record their own close in the capture, not just on EOF and read errors
+ 1.18 - 10182026 - Accept pause warning uses placeholders only
+ 1.19 - 10182026 - Rebuilt Selector delivers posted broadcasts, no idle timeout rearmed for a closed connection
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+public class EchoWorker implements Runnable{
+
+    private final int id; //Index of this worker, used for the thread name
+    private final EchoConfig config; //Tunables shared with the acceptor
+    private final EchoMetrics metrics; //Server wide counters
+    private final AtomicHistogram latency; //This worker's own stripe of the processing latency histogram
+    private volatile Selector selector; //This worker's own Selector. Only the worker thread selects on it or replaces it
+    private volatile boolean running = true; //Cleared by shutdown()
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<SocketChannel>(); //Handed off by the acceptor
+    private final BufferPool bufferPool; //Direct buffers for this worker and its connections. Only used on this thread
+    private final ByteBuffer readBuffer; //A direct ByteBuffer for reading, shared by this worker's connections
+    private final EchoHandler handler; //What to do with each read, shared by this worker's connections
+    private final TimingWheel wheel; //Idle, read and write timeouts of this worker's connections, advanced by the loop
+    private final SelectorGuard guard; //Decides when the Selector has gone bad and needs replacing
+    private final Rooms rooms; //Broadcast mode, null otherwise
+    //Members of each room that this worker owns. The sets are only touched here, other workers only check for a key
+    private final ConcurrentHashMap<String, Set<EchoConnection>> members = new ConcurrentHashMap<String, Set<EchoConnection>>();
+    private final Queue<Broadcast> posted = new ConcurrentLinkedQueue<Broadcast>(); //Published on other workers
+    private final Queue<ByteBuffer> recycled = new ConcurrentLinkedQueue<ByteBuffer>(); //Broadcast payloads back from other workers
+    private TrafficCapture capture; //Records client reads when capture is on, null otherwise
+    private ServerSocketChannel listener; //Sharded mode, this worker's own listener. Null otherwise
+    private TimingWheel.Timeout acceptResume; //Turns OP_ACCEPT back on after a failed accept, created with the listener
+
+    public EchoWorker(int id, EchoConfig config, EchoMetrics metrics) throws IOException{
+        this(id, config, metrics, null);
+    }
+
+    /**
+     * Same as above for broadcast mode, where this worker's connections are members of rooms shared with the others
+     */
+    public EchoWorker(int id, EchoConfig config, EchoMetrics metrics, Rooms rooms) throws IOException{
+        this.id = id;
+        this.config = config;
+        this.metrics = metrics;
+        this.latency = metrics.newLatencyStripe();
+        this.selector = SelectorProvider.provider().openSelector();
+        this.bufferPool = new BufferPool(config.getPoolMaxBytes());
+        metrics.addBufferPool(bufferPool);
+        this.readBuffer = bufferPool.acquire(8192);
+        this.rooms = rooms;
+        this.handler = rooms == null ? new DefaultEchoHandler(config) : new BroadcastHandler(config, this, rooms);
+        this.wheel = new TimingWheel(config.getTimerTickMillis(), config.getTimerWheelSize());
+        this.guard = new SelectorGuard("Worker " + id, config, metrics);
+        if(rooms != null){
+            rooms.add(this);
+        }
+    }
+
+    public int getId(){
+        return id;
+    }
+
+    /**
+     * The pool's counters can be read from any thread, but only this worker may lease from it
+     */
+    public BufferPool getBufferPool(){
+        return bufferPool;
+    }
+
+    /**
+     * Gives this worker a listener of its own to accept on, for SO_REUSEPORT sharding. Called before the worker's
+     * thread is started
+     */
+    public void listen(ServerSocketChannel listener) throws IOException{
+        listener.register(selector, SelectionKey.OP_ACCEPT);
+        this.listener = listener;
+        this.acceptResume = wheel.newTimeout(new TimingWheel.Task(){
+            public void expired(long nowNanos){
+                resumeAccepting();
+            }
+        });
+    }
+
+    /**
+     * Gives this worker a bound datagram channel to echo on. Called before the worker's thread is started
+     */
+    public void echoDatagrams(DatagramChannel channel) throws IOException{
+        channel.register(selector, SelectionKey.OP_READ, new DatagramEcho(channel, config, bufferPool, metrics));
+    }
+
+    /**
+     * Records every read this worker makes from then on. Called before the worker's thread is started
+     */
+    public void capture(TrafficCapture capture){
+        this.capture = capture;
+    }
+
+    /**
+     * Called from the acceptor thread. A Selector can't safely be registered with while another thread is blocked in
+     * select(), so the channel is queued and the worker is woken up to register it itself on its next pass
+     */
+    public void register(SocketChannel socketChannel){
+        pendingChannels.add(socketChannel);
+        selector.wakeup();
+    }
+
+    /**
+     * Registers every channel the acceptor has handed over since the last pass for READ operations and attaches an
+     * EchoConnection to hold its outbound queue
+     *
+     * @return how many were handed over
+     */
+    private int registerPending(){
+        SocketChannel socketChannel;
+        int count = 0;
+
+        while((socketChannel = pendingChannels.poll()) != null){
+            registerChannel(socketChannel);
+            count++;
+        }
+        return count;
+    }
+
+    private void registerChannel(SocketChannel socketChannel){
+        try{
+            socketChannel.configureBlocking(false);
+            SelectionKey key = socketChannel.register(this.selector, SelectionKey.OP_READ);
+            EchoConnection connection = new EchoConnection(socketChannel, key, config, bufferPool, metrics, wheel);
+            key.attach(connection);
+            if(capture != null){
+                connection.capture(capture);
+            }
+            if(rooms != null){
+                join(connection, config.getDefaultRoom());
+            }
+
+            if(Log.isDebugEnabled()){
+                Log.debug("Worker {} listening for read requests on socketChannel {}", id, socketChannel.socket());
+            }
+        }catch(IOException ie){
+            Log.warn("Could not register an accepted connection", ie);
+            metrics.closed.increment();
+            try{
+                socketChannel.close();
+            }catch(IOException ignored){
+            }
+        }
+    }
+
+    /**
+     * Broadcast mode. Moves a connection of this worker's into a room, out of whichever it was in before
+     */
+    void join(EchoConnection connection, String room){
+        Set<EchoConnection> previous = connection.getRoomMembers();
+        if(previous != null){
+            previous.remove(connection);
+            if(previous.isEmpty()){
+                members.remove(connection.getRoom(), previous);
+            }
+        }
+
+        Set<EchoConnection> roomMembers = members.get(room);
+        if(roomMembers == null){
+            roomMembers = new HashSet<EchoConnection>();
+            members.put(room, roomMembers);
+        }
+        roomMembers.add(connection);
+        connection.setRoom(room, roomMembers);
+
+        if(Log.isDebugEnabled()){
+            Log.debug("{} joined room {}", connection.getRemoteAddress(), room);
+        }
+    }
+
+    /**
+     * Called from any worker. A room whose last member here closed may still show up until the next delivery to it
+     */
+    boolean hasMembers(String room){
+        return members.containsKey(room);
+    }
+
+    /**
+     * Called from another worker's thread with a reference already taken for this one. Delivered on the next pass
+     */
+    void post(Broadcast broadcast){
+        posted.add(broadcast);
+        selector.wakeup();
+    }
+
+    /**
+     * Called from any thread once the last member has written a broadcast payload leased from this worker's pool. The
+     * pool isn't thread safe so it is handed back on the next pass
+     */
+    void recycle(ByteBuffer payload){
+        recycled.add(payload);
+    }
+
+    /**
+     * Queues the broadcast on every member this worker owns in its room and gives up the reference taken for this
+     * worker. One reference per member is taken up front so a member that writes its view out during the loop can't
+     * free the payload under the rest. Members that fail are closed after the loop, which leaves the set alone while
+     * it is being walked
+     */
+    void deliver(Broadcast broadcast){
+        Set<EchoConnection> roomMembers = members.get(broadcast.getRoom());
+        if(roomMembers == null || roomMembers.isEmpty()){
+            if(roomMembers != null){
+                members.remove(broadcast.getRoom(), roomMembers);
+            }
+            broadcast.release();
+            return;
+        }
+
+        int maxQueuedBytes = config.getBroadcastMaxQueuedBytes();
+        int taken = roomMembers.size();
+        int delivered = 0;
+        List<EchoConnection> failed = null;
+        broadcast.retain(taken);
+
+        for(EchoConnection connection : roomMembers){
+            try{
+                if(connection.enqueue(broadcast, maxQueuedBytes)){
+                    delivered++;
+                }else{
+                    metrics.broadcastsDropped.increment();
+                }
+            }catch(IOException ie){
+                delivered++; //The view is in its queue and goes back when the connection is closed below
+                if(failed == null){
+                    failed = new ArrayList<EchoConnection>();
+                }
+                failed.add(connection);
+            }
+        }
+
+        metrics.broadcastDeliveries.add(delivered);
+        broadcast.release(taken - delivered + 1); //Unused member references and this worker's own
+        if(failed != null){
+            for(EchoConnection connection : failed){
+                Log.debug("Closing connection after I/O error on broadcast: {}", connection.getRemoteAddress());
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Delivers what other workers have published since the last pass and returns their spent payloads to the pool
+     *
+     * @return how many broadcasts were delivered
+     */
+    private int deliverPosted(){
+        ByteBuffer payload;
+        while((payload = recycled.poll()) != null){
+            bufferPool.release(payload);
+        }
+
+        Broadcast broadcast;
+        int count = 0;
+        while((broadcast = posted.poll()) != null){
+            deliver(broadcast);
+            count++;
+        }
+        return count;
+    }
+
+    private void drainDatagrams(SelectionKey key){
+        try{
+            ((DatagramEcho) key.attachment()).drain();
+        }catch(IOException ie){
+            //Receive errors on an unconnected socket are rare and not tied to one sender, so the socket stays open
+            Log.warn("UDP receive failed", ie);
+        }
+    }
+
+    /**
+     * Sharded mode. Drains this worker's own listener a batch at a time, the same way the acceptor does, and
+     * registers each connection straight away without any hand off
+     */
+    private void accept(SelectionKey key){
+        for(int i = 0; i < config.getAcceptBatch(); i++){
+            SocketChannel socketChannel;
+            try{
+                socketChannel = listener.accept();
+            }catch(IOException ie){
+                pauseAccepting(key, ie);
+                return;
+            }
+            if(socketChannel == null){
+                return; //Nothing left to accept
+            }
+            if(EchoServer.admit(socketChannel, config, metrics)){
+                registerChannel(socketChannel);
+            }
+        }
+    }
+
+    /**
+     * Same as the acceptor. Out of file descriptors the listener stays ready and retrying every pass would only spin,
+     * so OP_ACCEPT is off until the backoff timeout fires and connections wait in the listen queue meanwhile
+     */
+    private void pauseAccepting(SelectionKey key, IOException cause){
+        key.interestOps(0);
+        wheel.schedule(acceptResume, System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(config.getAcceptBackoffMillis()));
+        Log.warn("Worker {} accept failed, pausing accepts for {} ms: {}", id, config.getAcceptBackoffMillis(), cause);
+    }
+
+    private void resumeAccepting(){
+        SelectionKey key = listener.keyFor(selector); //The Selector may have been rebuilt during the pause
+        if(key != null && key.isValid()){
+            key.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    /**
+     * Same loop the single threaded server used to run, minus accepting. Each worker only ever sees the keys of the
+     * connections it was handed so its buffers and handler are never shared between threads
+     */
+    public void run(){
+        Log.info("Worker {} waiting...", id);
+
+        while (running && !Thread.currentThread().isInterrupted()){
+            try{
+                //Wait for an event on one of the registered channels, or until the timing wheel's next tick
+                long timeoutMillis = wheel.millisUntilNextTick(System.nanoTime());
+                long selectNanos = System.nanoTime();
+                if(!select(timeoutMillis)){
+                    continue;
+                }
+                if(!running){
+                    break; //Woken by shutdown()
+                }
+                int selected = this.selector.selectedKeys().size();
+                metrics.wakeups.increment();
+                metrics.selectedKeys.add(selected);
+
+                int fired = wheel.advance(System.nanoTime()); //Closes whatever timed out, their keys are skipped below as invalid
+
+                int registered = registerPending();
+                int broadcasts = deliverPosted();
+
+                //Hand offs from the acceptor or other workers wake the loop with no keys, so they count as work too
+                if(guard.selected(selected + fired + registered + broadcasts, selectNanos, timeoutMillis)){
+                    rebuildSelector();
+                    continue;
+                }
+
+                Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();//Creates a key iterator object to cycle
+
+                //Cycle through the queue of keys from the selector
+                while(selectedKeys.hasNext()){
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();//Removes the current key so it is not processed again
+
+                    //Check the event type of the current key and use the appropriate method as long as key is valid
+                    if(!key.isValid()){
+                        Log.debug("This key was not valid...");
+                        continue; //If the key IS NOT valid breaks out of loop
+                    }
+
+                    if(key.isAcceptable()){
+                        this.accept(key); //Sharded, this worker's own listener
+                        continue;
+                    }
+                    if(key.attachment() instanceof DatagramEcho){
+                        drainDatagrams(key); //UDP
+                        continue;
+                    }
+
+                    try{
+                        if(key.isReadable()){
+                            this.read(key); //Are we reading?
+                        }
+
+                        //read() may have closed the connection, so the key is checked again
+                        if(key.isValid() && key.isWritable()){
+                            this.write(key); //Is there a backlog to flush?
+                        }
+                    }catch(IOException ie){
+                        //One broken connection must not take the loop down or stay registered to fail again
+                        Log.debug("Closing connection after I/O error: {}", ie);
+                        ((EchoConnection) key.attachment()).close();
+                    }
+                }
+            }catch (Exception e){
+                Log.error("Worker " + id + " loop failed", e); //Not the Selector's fault, so no rebuild
+            }
+        }
+
+        closeAll();
+    }
+
+    /**
+     * Waits on the Selector. A failure here is the only one that counts toward replacing it
+     *
+     * @return false if select() failed and the pass should start over
+     */
+    private boolean select(long timeoutMillis){
+        try{
+            this.selector.select(timeoutMillis);
+            guard.passed();
+            return true;
+        }catch(IOException ie){
+            if(guard.failed(ie)){
+                rebuildSelector();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Swaps the Selector for a fresh one holding the same connections, listeners and datagram channels. The acceptor
+     * may have queued a channel, and other workers posted a broadcast or handed back a spent payload, then woken the
+     * old Selector just before the swap. Those wakeups are lost with it, so both queues are drained again once the new
+     * one is in place
+     */
+    private void rebuildSelector(){
+        try{
+            selector = guard.rebuild(selector);
+        }catch(IOException ie){
+            Log.error("Worker " + id + " could not open a new Selector", ie); //Keeps the old one and tries again later
+            return;
+        }
+        registerPending();
+        deliverPosted();
+    }
+
+    /**
+     * Asks the loop to stop. Called from any thread, the worker closes its connections itself on the way out
+     */
+    public void shutdown(){
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeAll(){
+        for(SelectionKey key : selector.keys()){
+            if(key.attachment() instanceof EchoConnection){
+                ((EchoConnection) key.attachment()).close();
+            }else if(key.attachment() instanceof DatagramEcho){
+                ((DatagramEcho) key.attachment()).close();
+            }else if(key.channel() instanceof ServerSocketChannel){
+                try{
+                    key.channel().close();
+                }catch(IOException ignored){
+                }
+            }
+        }
+        SocketChannel socketChannel;
+        while((socketChannel = pendingChannels.poll()) != null){
+            try{
+                socketChannel.close();
+            }catch(IOException ignored){
+            }
+        }
+        Broadcast broadcast;
+        while((broadcast = posted.poll()) != null){
+            broadcast.release();
+        }
+        try{
+            selector.close();
+        }catch(IOException ie){
+            Log.warn("Error closing worker selector", ie);
+        }
+        if(capture != null){
+            capture.close();
+        }
+        Log.info("Worker {} stopped", id);
+    }
+
+    /**
+     * Reads whatever has arrived and echoes it. The time from here until the echo has been handed to the socket or
+     * queued is recorded as this read's processing latency
+     */
+    public void read(SelectionKey key) throws IOException{
+        long startNanos = System.nanoTime();
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+
+        this.readBuffer.clear(); //Clears the readBuffer for new incoming data from the socket channel(Clear before read)
+
+        int bytesRead; //Variable to hold data while we scan it in from the socket channel
+        bytesRead = socketChannel.read(this.readBuffer);//Read from the socket channel
+
+        EchoConnection connection = (EchoConnection) key.attachment();
+
+        //Client shut the connection down cleanly so readBuffer has -1 int
+        if(bytesRead == -1) {
+            connection.close();
+            if(Log.isDebugEnabled()){
+                Log.debug("logout: {}. The remote connection has cleanly shut down. The server is doing the same.",
+                        socketChannel.socket().getInetAddress());
+            }
+            return;
+        }
+
+        this.readBuffer.flip(); //Prepare the readBuffer for echoing or decoding
+        metrics.bytesIn.add(bytesRead);
+
+        if(capture != null && bytesRead > 0){
+            capture.record(connection.getId(), startNanos, readBuffer); //A copy into mapped memory, no system call
+        }
+
+        handler.onRead(connection, readBuffer);
+        if(!connection.isClosed()){
+            connection.touchRead(); //A handler that closed it has already cancelled its idle timeout
+        }
+
+        metrics.messages.increment();
+        latency.recordValue(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Called when the key is writable, which only happens while the connection has a backlog. Drains the queue until
+     * the socket would block again
+     */
+    public void write(SelectionKey key) throws IOException{
+        EchoConnection connection = (EchoConnection) key.attachment();
+
+        if(connection.flush() && Log.isTraceEnabled()){
+            Log.trace("Backlog flushed to: {}", connection.getSocketChannel().socket().getInetAddress());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: how messages are delimited on the wire. NONE is the original behavior where a message
+ |is whatever one read returned. FIXED and VARINT put a length in front of every message so that
+ |messages survive TCP coalescing and splitting and can be pipelined on one connection
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Moved into com.eaidesign.echo for the Maven build
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+public enum Framing {
+
+    NONE(0),   //No header, a message is one read
+    FIXED(4),  //4 byte big endian payload length
+    VARINT(5); //Unsigned LEB128 payload length, 7 bits per byte, high bit set on all but the last byte
+
+    private final int maxHeaderBytes; //Most bytes a header can take
+
+    Framing(int maxHeaderBytes){
+        this.maxHeaderBytes = maxHeaderBytes;
+    }
+
+    /**
+     * Accepts the names in any case, as used by -Decho.framing
+     */
+    public static Framing parse(String name){
+        return Framing.valueOf(name.trim().toUpperCase());
+    }
+
+    public int getMaxHeaderBytes(){
+        return maxHeaderBytes;
+    }
+
+    /**
+     * Number of header bytes in front of a payload of the given length
+     */
+    public int headerLength(int payloadLength){
+        switch(this){
+            case FIXED:
+                return 4;
+            case VARINT:
+                int length = 1;
+                while((payloadLength >>>= 7) != 0){
+                    length++;
+                }
+                return length;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Writes the header for a payload of the given length at the buffer's position
+     */
+    public void putHeader(ByteBuffer out, int payloadLength){
+        switch(this){
+            case FIXED:
+                out.putInt(payloadLength);
+                break;
+            case VARINT:
+                while((payloadLength & ~0x7F) != 0){
+                    out.put((byte) ((payloadLength & 0x7F) | 0x80));
+                    payloadLength >>>= 7;
+                }
+                out.put((byte) payloadLength);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Reads a header starting at the buffer's position. When the whole header is there the position is moved past it
+     * and the payload length is returned. When it isn't, the position is left alone and -1 is returned so the caller
+     * can wait for more bytes
+     *
+     * @throws ProtocolException if the header can't be a valid length
+     */
+    public int readHeader(ByteBuffer in) throws ProtocolException{
+        switch(this){
+            case FIXED:
+                if(in.remaining() < 4){
+                    return -1;
+                }
+                int length = in.getInt(in.position());
+                if(length < 0){
+                    throw new ProtocolException("Negative frame length " + length);
+                }
+                in.position(in.position() + 4);
+                return length;
+            case VARINT:
+                int value = 0;
+                for(int i = 0; i < maxHeaderBytes; i++){
+                    if(in.remaining() <= i){
+                        return -1;
+                    }
+                    byte b = in.get(in.position() + i);
+                    if(i == maxHeaderBytes - 1 && (b & 0xF8) != 0){
+                        throw new ProtocolException("Varint frame length overflows an int"); //Only 3 bits fit in byte 5
+                    }
+                    value |= (b & 0x7F) << (7 * i);
+                    if((b & 0x80) == 0){
+                        in.position(in.position() + i + 1);
+                        return value;
+                    }
+                }
+                throw new ProtocolException("Varint frame length longer than " + maxHeaderBytes + " bytes");
+            default:
+                throw new IllegalStateException("NONE has no header");
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: a high dynamic range histogram of long values, used for latencies. Values below 2048 are
+ |counted exactly and larger values are counted in log-linear buckets that keep about 3 significant
+ |digits, so a nanosecond and an hour fit in the same fixed size array of counts
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Moved into com.eaidesign.echo for the Maven build
+ 1.2  - 10182026 - recordValueWithCount() and bucket helpers shared with AtomicHistogram
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.util.Arrays;
+
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 11; //Precision. Each power of two range is split into 1024 buckets
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    private final long highestTrackableValue; //Anything bigger is counted as this
+    private final long[] counts;
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    /**
+     * @param highestTrackableValue largest value kept at full precision, for example an hour in nanoseconds
+     */
+    public Histogram(long highestTrackableValue){
+        if(highestTrackableValue < SUB_BUCKET_COUNT){
+            throw new IllegalArgumentException("highestTrackableValue must be at least " + SUB_BUCKET_COUNT);
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new long[indexFor(highestTrackableValue) + 1];
+    }
+
+    /**
+     * Index of the bucket a value falls in. Values under SUB_BUCKET_COUNT are their own index. Above that the value
+     * is shifted right until it fits in the top half of a sub-bucket range, and each shift amount gets its own run of
+     * SUB_BUCKET_HALF buckets
+     */
+    static int indexFor(long value){
+        if(value < SUB_BUCKET_COUNT){
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_HALF;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + subBucket;
+    }
+
+    /**
+     * Highest value that lands in the bucket at this index
+     */
+    static long highestValueAt(int index){
+        if(index < SUB_BUCKET_COUNT){
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public void recordValue(long value){
+        if(value < 0){
+            value = 0;
+        }
+        if(value > highestTrackableValue){
+            value = highestTrackableValue;
+        }
+
+        counts[indexFor(value)]++;
+        totalCount++;
+        sum += value;
+        if(value < min){
+            min = value;
+        }
+        if(value > max){
+            max = value;
+        }
+    }
+
+    /**
+     * Records the same value many times over, as when rebuilding a histogram from bucket counts kept elsewhere
+     */
+    public void recordValueWithCount(long value, long count){
+        if(count <= 0){
+            return;
+        }
+        if(value < 0){
+            value = 0;
+        }
+        if(value > highestTrackableValue){
+            value = highestTrackableValue;
+        }
+
+        counts[indexFor(value)] += count;
+        totalCount += count;
+        sum += (double) value * count;
+        if(value < min){
+            min = value;
+        }
+        if(value > max){
+            max = value;
+        }
+    }
+
+    /**
+     * Adds every count from another histogram with the same highest trackable value into this one
+     */
+    public void add(Histogram other){
+        if(other.counts.length != counts.length){
+            throw new IllegalArgumentException("Histograms have different ranges");
+        }
+        for(int i = 0; i < counts.length; i++){
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset(){
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getTotalCount(){
+        return totalCount;
+    }
+
+    public long getMin(){
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax(){
+        return max;
+    }
+
+    public double getMean(){
+        return totalCount == 0 ? 0.0 : sum / totalCount;
+    }
+
+    /**
+     * Smallest recorded value that the given percent of all values are at or below, to the histogram's precision.
+     * Never reported above the largest value actually recorded
+     */
+    public long getValueAtPercentile(double percentile){
+        if(totalCount == 0){
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++){
+            seen += counts[i];
+            if(seen >= target){
+                return Math.min(highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,423 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: load mode for the Echo Client. Opens many connections on the client's Selector, sends
+ |fixed size requests on a schedule and times every echo into a Histogram. Driven entirely from the
+ |EchoClient event loop, which calls tick() once per pass and hands over each selected key
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Moved into com.eaidesign.echo for the Maven build
+ 1.2  - 10182026 - Connections can be spread over several local addresses(-Decho.load.bindAddresses)
+ 1.3  - 10182026 - One of the ClientDrivers, next to capture replay
+ 1.4  - 10182026 - Connections that fail or time out connecting(-Decho.load.connectTimeout) no longer hold up the run
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+public class LoadGenerator implements ClientDriver {
+
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5); //Wait for stragglers after the run
+
+    private final int connections = Integer.getInteger("echo.load.connections", 10); //Sockets to open
+    private final int payloadBytes = Integer.getInteger("echo.load.payload", 64); //Bytes of payload per request
+    private final long rate = Long.getLong("echo.load.rate", 0L); //Requests per second across all sockets, 0 = flat out
+    private final long durationNanos = TimeUnit.SECONDS.toNanos(Integer.getInteger("echo.load.duration", 10));
+    //Longest the run waits for connections to come up before starting with the ones that did
+    private final long connectTimeoutNanos = TimeUnit.SECONDS.toNanos(Integer.getInteger("echo.load.connectTimeout", 10));
+    private final int pipeline = Integer.getInteger("echo.client.pipeline", 128); //Most requests in flight per socket
+    //Local addresses connections are spread over, comma separated. One address runs out of ephemeral ports in the tens of thousands
+    private final String bindAddresses = System.getProperty("echo.load.bindAddresses", "");
+
+    private final Framing framing; //Must match the server's
+    private final BufferPool bufferPool; //Direct buffers for the load connections, only used on the client thread
+    private final Histogram histogram = new Histogram(TimeUnit.HOURS.toNanos(1)); //Round trip times in nanoseconds
+    private final ByteBuffer request; //One complete request, header and payload. Read only, duplicated for every use
+    private final int requestLength;
+    private final long intervalNanos; //Time between requests on one connection when a rate is set
+    private final LoadConnection[] loadConnections;
+
+    private int connected; //Connections that have finished connecting
+    private int connectFailures; //Connections that never came up, refused or timed out
+    private long connectDeadlineNanos; //When connections still pending are given up on
+    private boolean started;
+    private long startNanos; //When the schedule started, once every connection was up or had failed
+    private long endNanos; //When the schedule stops issuing new requests
+    private long lastCompletionNanos;
+    private long completed; //Echoes fully received
+    private long mismatches; //Echoed chunks whose bytes didn't match what was sent
+    private long failures; //Connections lost with requests in flight
+    private boolean done;
+
+    public LoadGenerator(Framing framing){
+        if(connections < 1 || payloadBytes < 1 || pipeline < 1 || rate < 0){
+            throw new IllegalArgumentException("echo.load.connections, echo.load.payload and echo.client.pipeline must"
+                    + " be positive and echo.load.rate must not be negative");
+        }
+        if(framing == Framing.NONE && pipeline > 1){
+            Log.info("Unframed load, echoes are matched to requests by byte count");
+        }
+
+        this.framing = framing;
+        this.loadConnections = new LoadConnection[connections];
+
+        //Payload is a repeating alphabet so a mangled echo shows up in the byte comparison
+        requestLength = framing.headerLength(payloadBytes) + payloadBytes;
+
+        //Room for every connection's two buffers plus a partly used slab per size class
+        this.bufferPool = new BufferPool((long) connections * 2 * Math.max(8192, requestLength) + 4 * 256 * 1024);
+        ByteBuffer template = ByteBuffer.allocateDirect(requestLength);
+        framing.putHeader(template, payloadBytes);
+        for(int i = 0; i < payloadBytes; i++){
+            template.put((byte) ('a' + i % 26));
+        }
+        template.flip();
+        request = template.asReadOnlyBuffer();
+
+        intervalNanos = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) * connections / rate;
+    }
+
+    /**
+     * Opens every connection and registers it with the client's Selector for OP_CONNECT
+     */
+    @Override
+    public void open(Selector selector, InetSocketAddress address) throws IOException{
+        String[] locals = bindAddresses.trim().isEmpty() ? new String[0] : bindAddresses.split(",");
+        for(int i = 0; i < connections; i++){
+            SocketChannel socketChannel = SocketChannel.open();
+            socketChannel.configureBlocking(false);
+            if(locals.length > 0){
+                socketChannel.bind(new InetSocketAddress(locals[i % locals.length].trim(), 0));
+            }
+            socketChannel.connect(address);
+
+            LoadConnection connection = new LoadConnection(socketChannel, pipeline, requestLength, bufferPool);
+            connection.key = socketChannel.register(selector, SelectionKey.OP_CONNECT, connection);
+            loadConnections[i] = connection;
+        }
+        connectDeadlineNanos = System.nanoTime() + connectTimeoutNanos;
+        Log.info("Load opening {} connections to {}", connections, address);
+    }
+
+    @Override
+    public void connect(SelectionKey key) throws IOException{
+        LoadConnection connection = (LoadConnection) key.attachment();
+
+        if(connection.socketChannel.isConnectionPending()){
+            connection.socketChannel.finishConnect();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        connection.connected = true;
+        connected++;
+    }
+
+    /**
+     * Starts the schedule. The clock only starts once every connection is up or has failed so connect time isn't
+     * counted as latency
+     */
+    private void start(long now){
+        started = true;
+        startNanos = now;
+        endNanos = startNanos + durationNanos;
+        for(int i = 0; i < connections; i++){
+            loadConnections[i].nextDueNanos = startNanos + (intervalNanos / connections) * i; //Staggered
+        }
+        Log.info("{} of {} connections up, running for {} s", connected, connections,
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+    }
+
+    /**
+     * Gives up on every connection still connecting at the deadline
+     */
+    private void timeOutConnects(){
+        int timedOut = 0;
+        for(LoadConnection connection : loadConnections){
+            if(!connection.connected && connection.key.isValid()){
+                connection.close(bufferPool);
+                connectFailures++;
+                timedOut++;
+            }
+        }
+        Log.warn("{} load connections still not up after {} s, starting without them", timedOut,
+                TimeUnit.NANOSECONDS.toSeconds(connectTimeoutNanos));
+    }
+
+    /**
+     * Called once per pass of the event loop. Issues every request that has come due and has room in its
+     * connection's pipeline window
+     *
+     * @return nanoseconds until the next request is due, 0 if the loop shouldn't block, or -1 once the run is over
+     */
+    @Override
+    public long tick(long now) throws IOException{
+        if(done){
+            return -1;
+        }
+        if(!started){
+            if(connected + connectFailures < connections){
+                if(now < connectDeadlineNanos){
+                    return Math.min(TimeUnit.MILLISECONDS.toNanos(100), connectDeadlineNanos - now);
+                }
+                timeOutConnects();
+            }
+            if(connected == 0){
+                done = true;
+                throw new ConnectException("None of the " + connections + " load connections could connect");
+            }
+            start(now);
+        }
+
+        if(now >= endNanos){
+            //Stop issuing. Finished once every echo is back or the stragglers have had long enough
+            if(inFlight() == 0 || now - endNanos > DRAIN_TIMEOUT_NANOS){
+                done = true;
+                return -1;
+            }
+            return TimeUnit.MILLISECONDS.toNanos(10);
+        }
+
+        long nextDue = endNanos;
+        for(LoadConnection connection : loadConnections){
+            if(!connection.key.isValid()){
+                continue;
+            }
+            schedule(connection, now);
+            flushWrites(connection);
+            if(rate > 0 && connection.inFlight < pipeline){
+                nextDue = Math.min(nextDue, connection.nextDueNanos);
+            }
+        }
+        return Math.max(0, nextDue - now);
+    }
+
+    /**
+     * Queues requests on a connection. With a rate each request keeps the time it was scheduled for, not the time it
+     * actually went out, and latency is measured from then. A server that falls behind fills the pipeline window,
+     * later requests wait for room, and that wait shows up in the numbers instead of quietly lowering the offered
+     * load(coordinated omission). With no rate the window is simply kept full
+     */
+    private void schedule(LoadConnection connection, long now){
+        if(rate == 0){
+            while(connection.inFlight < pipeline){
+                connection.issue(now);
+            }
+            return;
+        }
+
+        while(connection.inFlight < pipeline && connection.nextDueNanos <= now && connection.nextDueNanos < endNanos){
+            connection.issue(connection.nextDueNanos);
+            connection.nextDueNanos += intervalNanos;
+        }
+    }
+
+    @Override
+    public void write(SelectionKey key) throws IOException{
+        flushWrites((LoadConnection) key.attachment());
+    }
+
+    /**
+     * Writes issued requests, packing as many copies of the request as fit into the connection's buffer per write
+     */
+    private void flushWrites(LoadConnection connection) throws IOException{
+        ByteBuffer out = connection.out;
+
+        while(true){
+            if(!out.hasRemaining()){
+                out.clear();
+                while(connection.unwritten > 0 && out.remaining() >= requestLength){
+                    out.put(request.duplicate());
+                    connection.unwritten--;
+                }
+                out.flip();
+                if(!out.hasRemaining()){
+                    break;
+                }
+            }
+
+            connection.socketChannel.write(out);
+            if(out.hasRemaining()){
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Reads echoes, checks them byte for byte against the request and records a round trip for each request that is
+     * now fully back. Requests are the same length and answered in order, so the byte count says which one finished
+     */
+    @Override
+    public void read(SelectionKey key) throws IOException{
+        LoadConnection connection = (LoadConnection) key.attachment();
+        ByteBuffer in = connection.in;
+
+        in.clear();
+        int bytesRead = connection.socketChannel.read(in);
+        long now = System.nanoTime();
+
+        if(bytesRead == -1){
+            close(connection, "Server closed a load connection");
+            return;
+        }
+        in.flip();
+
+        while(in.hasRemaining()){
+            int offset = (int) (connection.receivedBytes % requestLength);
+            int length = Math.min(in.remaining(), requestLength - offset);
+
+            ByteBuffer expected = request.duplicate();
+            expected.position(offset);
+            expected.limit(offset + length);
+            ByteBuffer actual = in.duplicate();
+            actual.limit(in.position() + length);
+            if(!actual.equals(expected)){
+                mismatches++;
+            }
+
+            in.position(in.position() + length);
+            connection.receivedBytes += length;
+
+            if(offset + length == requestLength){
+                histogram.recordValue(now - connection.complete());
+                completed++;
+                lastCompletionNanos = now;
+            }
+        }
+    }
+
+    @Override
+    public void close(SelectionKey key, IOException cause){
+        close((LoadConnection) key.attachment(), "Load connection failed: " + cause);
+    }
+
+    private void close(LoadConnection connection, String reason){
+        if(!connection.connected){
+            connectFailures++; //Settled all the same, the run starts without it
+            Log.warn("{} before it connected", reason);
+        }else if(connection.inFlight > 0){
+            failures++;
+            Log.warn("{} with {} requests in flight", reason, connection.inFlight);
+        }
+        connection.close(bufferPool);
+    }
+
+    private long inFlight(){
+        long inFlight = 0;
+        for(LoadConnection connection : loadConnections){
+            if(connection.key.isValid()){
+                inFlight += connection.inFlight;
+            }
+        }
+        return inFlight;
+    }
+
+    /**
+     * Closes every connection and prints the results, first for people and then as one line of JSON for scripts
+     */
+    @Override
+    public void report(){
+        for(LoadConnection connection : loadConnections){
+            if(connection.key != null && connection.key.isValid()){
+                connection.close(bufferPool);
+            }
+        }
+
+        double seconds = Math.max(1, lastCompletionNanos - startNanos) / 1e9; //Includes draining the last echoes
+        double throughput = completed / seconds;
+
+        System.out.println(String.format(Locale.ROOT,
+                "Load finished: %d requests of %d bytes over %d connections in %.2f s (target rate %s)",
+                completed, payloadBytes, connections, seconds, rate == 0 ? "unlimited" : rate + "/s"));
+        System.out.println(String.format(Locale.ROOT, "Throughput: %.1f requests/s", throughput));
+        System.out.println(String.format(Locale.ROOT,
+                "Round trip (us): mean=%.1f p50=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+                histogram.getMean() / 1e3, micros(50.0), micros(99.0), micros(99.9), histogram.getMax() / 1e3));
+        System.out.println("Mismatched echoes: " + mismatches + ", failed connections: " + failures
+                + ", failed connects: " + connectFailures);
+
+        System.out.println(String.format(Locale.ROOT,
+                "SUMMARY {\"connections\":%d,\"payloadBytes\":%d,\"framing\":\"%s\",\"targetRate\":%d,"
+                        + "\"seconds\":%.3f,\"requests\":%d,\"throughput\":%.1f,\"meanUs\":%.1f,\"p50Us\":%.1f,"
+                        + "\"p99Us\":%.1f,\"p999Us\":%.1f,\"maxUs\":%.1f,\"mismatches\":%d,\"failures\":%d,"
+                        + "\"connectFailures\":%d}",
+                connections, payloadBytes, framing.name().toLowerCase(Locale.ROOT), rate, seconds, completed,
+                throughput, histogram.getMean() / 1e3, micros(50.0), micros(99.0), micros(99.9),
+                histogram.getMax() / 1e3, mismatches, failures, connectFailures));
+    }
+
+    private double micros(double percentile){
+        return histogram.getValueAtPercentile(percentile) / 1e3;
+    }
+
+    /**
+     * State for one load connection, attached to its SelectionKey
+     */
+    static final class LoadConnection {
+        final SocketChannel socketChannel;
+        SelectionKey key;
+        boolean connected; //finishConnect() succeeded
+        final long[] issuedNanos; //Scheduled start of each request in flight, a ring in send order
+        int head; //Oldest request in flight
+        int inFlight; //Requests issued and not yet fully echoed
+        int unwritten; //Issued requests not yet copied into out
+        long nextDueNanos; //Scheduled time of the next request when a rate is set
+        long receivedBytes; //Echoed bytes so far
+        final ByteBuffer out; //Requests being written, leased
+        final ByteBuffer in; //Echoes being read, leased
+
+        LoadConnection(SocketChannel socketChannel, int pipeline, int requestLength, BufferPool bufferPool){
+            this.socketChannel = socketChannel;
+            this.issuedNanos = new long[pipeline];
+            this.out = bufferPool.acquire(Math.max(8192, requestLength)); //Always fits at least one whole request
+            this.out.flip(); //Starts empty
+            this.in = bufferPool.acquire(8192);
+        }
+
+        void issue(long scheduledNanos){
+            issuedNanos[(head + inFlight) % issuedNanos.length] = scheduledNanos;
+            inFlight++;
+            unwritten++;
+        }
+
+        /**
+         * Retires the oldest request in flight and returns when it was scheduled
+         */
+        long complete(){
+            long scheduledNanos = issuedNanos[head];
+            head = (head + 1) % issuedNanos.length;
+            inFlight--;
+            return scheduledNanos;
+        }
+
+        void close(BufferPool bufferPool){
+            key.cancel();
+            try{
+                socketChannel.close();
+            }catch(IOException ie){
+                Log.debug("Error closing load connection: {}", ie);
+            }
+            bufferPool.release(out);
+            bufferPool.release(in);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: logging for the Echo application. Messages below the configured level cost a single
+ |comparison. Enabled messages are copied into a preallocated slot of a bounded lock free ring and
+ |formatted and written by a background thread, so an event loop never takes a lock, allocates or
+ |waits on the console or a file to log
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Moved into com.eaidesign.echo for the Maven build
+ 1.2  - 10182026 - ArrayBlockingQueue replaced by a real lock free ring of reused event slots
+ 1.3  - 10182026 - Three argument warn, like info and debug
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+public final class Log {
+
+    public static final int ERROR = 0;
+    public static final int WARN = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+    public static final int TRACE = 4;
+
+    private static final String[] LEVEL_NAMES = {"ERROR", "WARN", "INFO", "DEBUG", "TRACE"};
+
+    //Fixed at startup(-Decho.log.level) so the JIT can fold the disabled checks away entirely
+    private static final int LEVEL = parseLevel(System.getProperty("echo.log.level", "INFO"));
+
+    //Slots waiting for the writer thread(-Decho.log.bufferSize, rounded up to a power of two). Every slot is allocated
+    //here once and reused. When the ring is full new events are dropped, not waited on
+    private static final int CAPACITY = powerOfTwo(Integer.getInteger("echo.log.bufferSize", 8192));
+    private static final int MASK = CAPACITY - 1;
+    private static final Event[] SLOTS = new Event[CAPACITY];
+
+    //Slot i holds claim number n when its sequence is n + 1 and is free for claim n when its sequence is n. Producers
+    //race for claims with a CAS on TAIL, the writer alone moves the head
+    private static final AtomicLongArray SEQUENCES = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong TAIL = new AtomicLong();
+    private static long head; //Next claim to write out, only touched holding OUT
+
+    private static final AtomicLong DROPPED = new AtomicLong(); //Events lost because the ring buffer was full
+    private static final PrintWriter OUT = openOutput(System.getProperty("echo.log.file")); //Console unless a file is given
+
+    private static volatile boolean writerParked; //Set while the writer sleeps on an empty ring so a producer wakes it
+
+    private static final Thread WRITER = new Thread(new Runnable(){
+        public void run(){
+            drainForever();
+        }
+    }, "echo-log-writer");
+
+    static{
+        for(int i = 0; i < CAPACITY; i++){
+            SLOTS[i] = new Event();
+            SEQUENCES.set(i, i);
+        }
+        WRITER.setDaemon(true);
+        WRITER.start();
+
+        //Whatever is still buffered when the JVM exits gets written out
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+            public void run(){
+                drain();
+            }
+        }, "echo-log-flush"));
+    }
+
+    private Log(){
+    }
+
+    public static boolean isEnabled(int level){
+        return level <= LEVEL;
+    }
+
+    public static boolean isDebugEnabled(){
+        return DEBUG <= LEVEL;
+    }
+
+    public static boolean isTraceEnabled(){
+        return TRACE <= LEVEL;
+    }
+
+    /**
+     * Messages use {} placeholders which are only filled in on the writer thread. Arguments are kept by reference until
+     * then, so only pass values that won't change. Primitive arguments are boxed at the call site, so calls on a hot
+     * path with primitives should be guarded with isDebugEnabled()/isTraceEnabled() to keep the disabled case free
+     */
+    public static void error(String format){ log(ERROR, format, null, null, null, null); }
+    public static void error(String format, Object arg){ log(ERROR, format, arg, null, null, null); }
+    public static void error(String format, Object arg1, Object arg2){ log(ERROR, format, arg1, arg2, null, null); }
+    public static void error(String message, Throwable thrown){ log(ERROR, message, null, null, null, thrown); }
+
+    public static void warn(String format){ log(WARN, format, null, null, null, null); }
+    public static void warn(String format, Object arg){ log(WARN, format, arg, null, null, null); }
+    public static void warn(String format, Object arg1, Object arg2){ log(WARN, format, arg1, arg2, null, null); }
+    public static void warn(String format, Object arg1, Object arg2, Object arg3){ log(WARN, format, arg1, arg2, arg3, null); }
+    public static void warn(String message, Throwable thrown){ log(WARN, message, null, null, null, thrown); }
+
+    public static void info(String format){ log(INFO, format, null, null, null, null); }
+    public static void info(String format, Object arg){ log(INFO, format, arg, null, null, null); }
+    public static void info(String format, Object arg1, Object arg2){ log(INFO, format, arg1, arg2, null, null); }
+    public static void info(String format, Object arg1, Object arg2, Object arg3){ log(INFO, format, arg1, arg2, arg3, null); }
+
+    public static void debug(String format){ log(DEBUG, format, null, null, null, null); }
+    public static void debug(String format, Object arg){ log(DEBUG, format, arg, null, null, null); }
+    public static void debug(String format, Object arg1, Object arg2){ log(DEBUG, format, arg1, arg2, null, null); }
+    public static void debug(String format, Object arg1, Object arg2, Object arg3){ log(DEBUG, format, arg1, arg2, arg3, null); }
+
+    public static void trace(String format){ log(TRACE, format, null, null, null, null); }
+    public static void trace(String format, Object arg){ log(TRACE, format, arg, null, null, null); }
+    public static void trace(String format, Object arg1, Object arg2){ log(TRACE, format, arg1, arg2, null, null); }
+
+    /**
+     * Number of events dropped so far because the writer couldn't keep up
+     */
+    public static long getDropped(){
+        return DROPPED.get();
+    }
+
+    private static void log(int level, String format, Object arg1, Object arg2, Object arg3, Throwable thrown){
+        if(level > LEVEL){
+            return;
+        }
+
+        //Claim the next slot. Losing the CAS to another producer just means trying the claim after it
+        long claim = TAIL.get();
+        int index;
+        while(true){
+            index = (int) claim & MASK;
+            long sequence = SEQUENCES.get(index);
+            if(sequence == claim){
+                if(TAIL.compareAndSet(claim, claim + 1)){
+                    break;
+                }
+                claim = TAIL.get();
+            }else if(sequence < claim){
+                DROPPED.incrementAndGet(); //The writer hasn't freed this slot from the last lap yet, the ring is full
+                return;
+            }else{
+                claim = TAIL.get(); //Another producer took this claim
+            }
+        }
+
+        SLOTS[index].set(level, System.currentTimeMillis(), Thread.currentThread().getName(),
+                format, arg1, arg2, arg3, thrown);
+        SEQUENCES.set(index, claim + 1); //Publishes the slot, the writer reads its fields only after seeing this
+
+        if(writerParked){
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    /**
+     * The writer thread's loop. Writes out everything already published in one go so a burst costs one flush rather
+     * than one per line, then parks until a producer wakes it. The timed park is a backstop, not the wakeup
+     */
+    private static void drainForever(){
+        long reportedDropped = 0;
+
+        while(!Thread.currentThread().isInterrupted()){
+            long dropped = DROPPED.get();
+            synchronized(OUT){
+                int written = writeAvailable();
+                if(dropped != reportedDropped){
+                    OUT.println("[echo-log-writer] WARN " + (dropped - reportedDropped) + " log events dropped, ring buffer full");
+                    reportedDropped = dropped;
+                    written++;
+                }
+                if(written > 0){
+                    OUT.flush();
+                    continue;
+                }
+            }
+
+            //Announce the park before the last look at the ring. A producer publishes before it reads writerParked,
+            //so either this look sees its event or it sees the flag and unparks
+            writerParked = true;
+            if(!isPublished(head())){
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+            }
+            writerParked = false;
+        }
+    }
+
+    private static void drain(){
+        synchronized(OUT){
+            writeAvailable();
+            OUT.flush();
+        }
+    }
+
+    /**
+     * Writes and frees every published slot from the head on. Caller holds OUT, which is what keeps the writer thread
+     * and the shutdown hook from both consuming
+     *
+     * @return how many events were written
+     */
+    private static int writeAvailable(){
+        int written = 0;
+        while(isPublished(head)){
+            int index = (int) head & MASK;
+            Event event = SLOTS[index];
+            write(event);
+            event.clear(); //Don't keep arguments reachable while the slot waits for its next lap
+            SEQUENCES.set(index, head + CAPACITY);
+            head++;
+            written++;
+        }
+        return written;
+    }
+
+    private static long head(){
+        synchronized(OUT){
+            return head;
+        }
+    }
+
+    private static boolean isPublished(long claim){
+        return SEQUENCES.get((int) claim & MASK) == claim + 1;
+    }
+
+    private static int powerOfTwo(int size){
+        int capacity = 2;
+        while(capacity < size && capacity < (1 << 30)){
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static void write(Event event){
+        StringBuilder line = new StringBuilder(128);
+        line.append(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(event.timeMillis)))
+                .append(" [").append(event.threadName).append("] ")
+                .append(LEVEL_NAMES[event.level]).append(' ');
+        format(line, event.format, event.arg1, event.arg2, event.arg3);
+        OUT.println(line);
+
+        if(event.thrown != null){
+            StringWriter trace = new StringWriter();
+            event.thrown.printStackTrace(new PrintWriter(trace));
+            OUT.print(trace);
+        }
+    }
+
+    /**
+     * Replaces each {} in the format with the next argument, in order
+     */
+    private static void format(StringBuilder line, String format, Object arg1, Object arg2, Object arg3){
+        Object[] args = {arg1, arg2, arg3};
+        int next = 0;
+        int start = 0;
+        int placeholder;
+
+        while(next < args.length && (placeholder = format.indexOf("{}", start)) >= 0){
+            line.append(format, start, placeholder).append(args[next++]);
+            start = placeholder + 2;
+        }
+        line.append(format, start, format.length());
+    }
+
+    private static int parseLevel(String name){
+        for(int i = 0; i < LEVEL_NAMES.length; i++){
+            if(LEVEL_NAMES[i].equalsIgnoreCase(name)){
+                return i;
+            }
+        }
+        return INFO;
+    }
+
+    private static PrintWriter openOutput(String file){
+        if(file != null){
+            try{
+                return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true)), false);
+            }catch(IOException ie){
+                System.err.println("Could not open log file " + file + ", logging to the console: " + ie);
+            }
+        }
+        return new PrintWriter(System.out, false);
+    }
+
+    /**
+     * One ring slot, holding a log call as is. Filled by the producer that claimed it and read by the writer once the
+     * slot's sequence is published, so the fields need no volatile of their own. Formatting waits until the writer
+     * thread gets to it
+     */
+    private static final class Event {
+        int level;
+        long timeMillis;
+        String threadName;
+        String format;
+        Object arg1;
+        Object arg2;
+        Object arg3;
+        Throwable thrown;
+
+        void set(int level, long timeMillis, String threadName, String format, Object arg1, Object arg2, Object arg3,
+                 Throwable thrown){
+            this.level = level;
+            this.timeMillis = timeMillis;
+            this.threadName = threadName;
+            this.format = format;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.arg3 = arg3;
+            this.thrown = thrown;
+        }
+
+        void clear(){
+            format = null;
+            arg1 = null;
+            arg2 = null;
+            arg3 = null;
+            thrown = null;
+        }
+    }
+}
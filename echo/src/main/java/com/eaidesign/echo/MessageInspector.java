@@ -0,0 +1,34 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: hook for looking at the text of each message the Echo Server receives. Bytes are only
+ |decoded to characters when one of these is registered with EchoConfig
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Moved into com.eaidesign.echo for the Maven build
+ 1.2  - 10182026 - Gets the EchoSession rather than a SocketChannel so it works with every transport
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.nio.CharBuffer;
+
+public interface MessageInspector {
+
+    /**
+     * Called on the thread that owns the connection, once per read, with the characters decoded from that
+     * read. A character split across two reads is held back and delivered whole with the next call. The CharBuffer is
+     * only valid for the duration of the call and must not block
+     */
+    void inspect(EchoSession session, CharBuffer message);
+}
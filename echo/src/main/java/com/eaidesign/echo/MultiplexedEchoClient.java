@@ -0,0 +1,552 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: a thread safe client for services that call the Echo Server. Keeps a few persistent
+ |connections open on one I/O thread and spreads every caller's requests over them. Each request is
+ |a frame whose payload starts with an 8 byte request id, which the server echoes back untouched, so
+ |the echo completes the right CompletableFuture however many calls are in flight on a connection.
+ |The server has to be running in binary mode with the same framing. Usage:
+ |  MultiplexedEchoClient client = new MultiplexedEchoClient(address, Framing.FIXED, 4);
+ |  client.echo("hello".getBytes()).thenAccept(...);
+ |  client.close();
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Per request deadline, no call left hanging by close() or by a connection failing
+ 1.2  - 10182026 - Constructor closes what it opened when it fails part way
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MultiplexedEchoClient implements Closeable {
+
+    private static final int ID_BYTES = 8; //Request id in front of every payload
+    private static final int MAX_FRAME_BYTES = 1024 * 1024; //Same limit as the server's default
+    private static final long RECONNECT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1); //Wait after a connection is lost
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000; //How long a call waits for its echo unless told otherwise
+
+    private final InetSocketAddress address; //The server
+    private final Framing framing; //Must match the server's
+    private final Selector selector; //Only the I/O thread selects on it
+    private final ClientConnection[] connections; //The pool, only touched by the I/O thread
+    private final BufferPool bufferPool = new BufferPool(16L * 1024 * 1024); //Only used on the I/O thread
+    private final Queue<Request> submitted = new ConcurrentLinkedQueue<Request>(); //From any thread to the I/O thread
+    private final ArrayDeque<Request> deadlines = new ArrayDeque<Request>(); //Calls handed to a connection, oldest first. I/O thread only
+    private final long timeoutNanos; //Longest a call waits for its echo, 0 forever
+    private final AtomicLong nextId = new AtomicLong(); //Request ids, unique for the life of the client
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(); //Saves a wakeup() per call when the loop is busy anyway
+    private final Thread ioThread;
+    private volatile boolean closed; //Set by close()
+
+    /**
+     * Opens the connections and starts the I/O thread. Connecting carries on in the background, calls made before a
+     * connection is up wait in the queue for it. Calls fail if no echo comes back within DEFAULT_TIMEOUT_MILLIS
+     *
+     * @param connections sockets to spread requests over. A handful carry thousands of calls in flight
+     */
+    public MultiplexedEchoClient(InetSocketAddress address, Framing framing, int connections) throws IOException{
+        this(address, framing, connections, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Same as above with a chosen deadline
+     *
+     * @param timeoutMillis longest a call waits for its echo, counting any wait for a connection, 0 forever
+     */
+    public MultiplexedEchoClient(InetSocketAddress address, Framing framing, int connections, long timeoutMillis)
+            throws IOException{
+        if(framing == Framing.NONE){
+            throw new IllegalArgumentException("Requests can only be told apart in a framed mode");
+        }
+        if(connections < 1){
+            throw new IllegalArgumentException("connections must be at least 1 but was " + connections);
+        }
+        if(timeoutMillis < 0){
+            throw new IllegalArgumentException("timeoutMillis must not be negative but was " + timeoutMillis);
+        }
+
+        this.address = address;
+        this.framing = framing;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.selector = SelectorProvider.provider().openSelector();
+        this.connections = new ClientConnection[connections];
+        boolean started = false;
+        try{
+            for(int i = 0; i < connections; i++){
+                this.connections[i] = new ClientConnection();
+                connect(this.connections[i]);
+            }
+
+            this.ioThread = new Thread(new Runnable(){
+                public void run(){
+                    loop();
+                }
+            }, "echo-client-io");
+            ioThread.setDaemon(true);
+            ioThread.start();
+            started = true;
+        }finally{
+            if(!started){
+                abandon(); //Whatever went wrong is thrown on to the caller, who never gets a client to close
+            }
+        }
+    }
+
+    /**
+     * Sends the bytes and returns a future for their echo. Safe to call from any thread. The future completes on the
+     * I/O thread, so anything slow chained onto it should use one of the async variants. Fails with an IOException
+     * if the connection the call went out on is lost or the client is closed before the echo arrives, and with a
+     * SocketTimeoutException if the echo takes longer than the client's deadline
+     */
+    public CompletableFuture<byte[]> echo(byte[] payload){
+        CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+        if(payload.length > MAX_FRAME_BYTES - ID_BYTES){
+            future.completeExceptionally(new IllegalArgumentException("Payload of " + payload.length
+                    + " bytes is over the frame limit"));
+            return future;
+        }
+        if(closed){
+            future.completeExceptionally(new IOException("Client is closed"));
+            return future;
+        }
+
+        Request request = new Request(nextId.getAndIncrement(), payload, future,
+                timeoutNanos == 0 ? 0 : System.nanoTime() + timeoutNanos);
+        submitted.add(request);
+
+        //close() may have come in since the check above and the I/O thread already failed what it found queued. Whoever
+        //takes the request out of the queue completes it, so it is never left waiting on a thread that has gone
+        if(closed){
+            if(submitted.remove(request)){
+                future.completeExceptionally(new IOException("Client is closed"));
+            }
+            return future;
+        }
+
+        if(wakeupPending.compareAndSet(false, true)){
+            selector.wakeup();
+        }
+        return future;
+    }
+
+    /**
+     * Stops the I/O thread, closes every connection and fails whatever is still waiting. Waits a moment for the I/O
+     * thread to finish
+     */
+    public void close(){
+        closed = true;
+        selector.wakeup();
+        if(Thread.currentThread() != ioThread){
+            try{
+                ioThread.join(TimeUnit.SECONDS.toMillis(5));
+            }catch(InterruptedException ie){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The I/O thread. Hands new requests to connections, writes them out, reads echoes back and reconnects lost
+     * connections, until close()
+     */
+    private void loop(){
+        while(!closed){
+            try{
+                selector.select(waitMillis());
+                wakeupPending.set(false); //Any call submitted from here on wakes the next select()
+
+                reconnectDue();
+                assignSubmitted();
+                expireDue(System.nanoTime());
+
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while(selectedKeys.hasNext()){
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    ClientConnection connection = (ClientConnection) key.attachment();
+                    if(!key.isValid()){
+                        continue;
+                    }
+
+                    try{
+                        if(key.isConnectable()){
+                            finishConnect(connection);
+                        }
+                        if(key.isValid() && key.isReadable()){
+                            read(connection);
+                        }
+                        if(key.isValid() && key.isWritable()){
+                            flush(connection);
+                        }
+                    }catch(IOException ie){
+                        lost(connection, ie);
+                    }catch(RuntimeException re){
+                        lost(connection, new IOException(re)); //Its calls in flight would otherwise never be answered
+                    }
+                }
+            }catch(Exception e){
+                Log.error("Echo client loop failed", e);
+            }
+        }
+
+        IOException closedException = new IOException("Client is closed");
+        for(ClientConnection connection : connections){
+            drop(connection, closedException);
+        }
+        Request request;
+        while((request = submitted.poll()) != null){
+            request.future.completeExceptionally(closedException);
+        }
+        deadlines.clear();
+        try{
+            selector.close();
+        }catch(IOException ie){
+            Log.debug("Error closing client selector: {}", ie);
+        }
+    }
+
+    /**
+     * Undoes a constructor that failed part way. Closes the sockets opened so far and the Selector, there is no I/O
+     * thread yet to do it
+     */
+    private void abandon(){
+        IOException notStarted = new IOException("Client did not start");
+        for(ClientConnection connection : connections){
+            if(connection != null){
+                drop(connection, notStarted);
+            }
+        }
+        try{
+            selector.close();
+        }catch(IOException ie){
+            Log.debug("Error closing client selector: {}", ie);
+        }
+    }
+
+    private void connect(ClientConnection connection) throws IOException{
+        SocketChannel socketChannel = SocketChannel.open();
+        connection.socketChannel = socketChannel; //Set first so drop() closes it if anything below fails
+        socketChannel.configureBlocking(false);
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        connection.reconnectAtNanos = 0;
+        if(socketChannel.connect(address)){
+            connection.key = socketChannel.register(selector, SelectionKey.OP_READ, connection);
+            connection.connected = true;
+        }else{
+            connection.key = socketChannel.register(selector, SelectionKey.OP_CONNECT, connection);
+        }
+    }
+
+    private void finishConnect(ClientConnection connection) throws IOException{
+        connection.socketChannel.finishConnect();
+        connection.connected = true;
+        connection.key.interestOps(SelectionKey.OP_READ);
+        Log.debug("Echo client connected to {}", address);
+        assignSubmitted(); //Anything that was waiting for a connection can go now
+    }
+
+    /**
+     * Moves every submitted request onto the connection with the fewest calls in flight and tries to write them
+     * straight away. Requests stay queued while no connection is up
+     */
+    private void assignSubmitted(){
+        Request request;
+        while((request = submitted.peek()) != null){
+            ClientConnection connection = leastLoaded();
+            if(connection == null){
+                return; //Nothing connected, wait for finishConnect()
+            }
+            submitted.poll();
+            if(request.future.isDone()){
+                continue; //Cancelled by the caller while it waited
+            }
+
+            writeFrame(connection, request);
+            connection.inFlight.put(request.id, request.future);
+            connection.dirty = true;
+            if(request.deadlineNanos != 0){
+                request.connection = connection;
+                deadlines.addLast(request);
+            }
+        }
+
+        for(ClientConnection connection : connections){
+            if(connection.dirty){
+                connection.dirty = false;
+                try{
+                    flush(connection);
+                }catch(IOException ie){
+                    lost(connection, ie);
+                }
+            }
+        }
+    }
+
+    private ClientConnection leastLoaded(){
+        ClientConnection best = null;
+        for(ClientConnection connection : connections){
+            if(connection.connected && (best == null || connection.inFlight.size() < best.inFlight.size())){
+                best = connection;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Appends the request's frame to the end of the connection's last queued buffer when it fits, so a burst of small
+     * calls goes out in a few large writes, else to a newly leased buffer
+     */
+    private void writeFrame(ClientConnection connection, Request request){
+        int payloadLength = ID_BYTES + request.payload.length;
+        int frameLength = framing.headerLength(payloadLength) + payloadLength;
+
+        ByteBuffer tail = connection.outbound.peekLast();
+        if(tail == null || tail.capacity() - tail.limit() < frameLength){
+            tail = bufferPool.acquire(Math.max(frameLength, 8192));
+            tail.flip(); //Leased cleared, nothing to write yet
+            connection.outbound.addLast(tail);
+        }
+
+        int position = tail.position();
+        tail.position(tail.limit());
+        tail.limit(tail.capacity());
+        framing.putHeader(tail, payloadLength);
+        tail.putLong(request.id);
+        tail.put(request.payload);
+        tail.limit(tail.position());
+        tail.position(position);
+    }
+
+    /**
+     * Writes until the queue is empty or the socket would block, in which case OP_WRITE finishes it later
+     */
+    private void flush(ClientConnection connection) throws IOException{
+        ByteBuffer head;
+        while((head = connection.outbound.peekFirst()) != null){
+            connection.socketChannel.write(head);
+            if(head.hasRemaining()){
+                break;
+            }
+            bufferPool.release(connection.outbound.pollFirst());
+        }
+
+        int ops = connection.outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        if(connection.key.interestOps() != ops){
+            connection.key.interestOps(ops);
+        }
+    }
+
+    /**
+     * Reads echoes and completes the call each one belongs to. A frame bigger than the read buffer gets a bigger one
+     */
+    private void read(ClientConnection connection) throws IOException{
+        ByteBuffer in = connection.in;
+        if(connection.socketChannel.read(in) == -1){
+            throw new IOException("Server closed the connection");
+        }
+        in.flip();
+
+        while(true){
+            int frameStart = in.position();
+            int payloadLength = framing.readHeader(in);
+            if(payloadLength < 0){
+                break;
+            }
+            if(payloadLength < ID_BYTES || payloadLength > MAX_FRAME_BYTES){
+                throw new ProtocolException("Echo of " + payloadLength + " bytes can't be one of ours");
+            }
+            if(in.remaining() < payloadLength){
+                in.position(frameStart);
+                if(in.capacity() < framing.getMaxHeaderBytes() + payloadLength){
+                    in = grow(connection, framing.getMaxHeaderBytes() + payloadLength);
+                }
+                break;
+            }
+
+            long id = in.getLong();
+            byte[] echoed = new byte[payloadLength - ID_BYTES];
+            in.get(echoed);
+            CompletableFuture<byte[]> future = connection.inFlight.remove(id);
+            if(future != null){
+                future.complete(echoed);
+            }else{
+                Log.debug("Echo for unknown request {}", id);
+            }
+        }
+        in.compact();
+    }
+
+    private ByteBuffer grow(ClientConnection connection, int capacity){
+        ByteBuffer bigger = bufferPool.acquire(capacity);
+        bigger.put(connection.in);
+        bigger.flip(); //Left ready to read like the buffer it replaces, the caller compacts it
+        bufferPool.release(connection.in);
+        connection.in = bigger;
+        return bigger;
+    }
+
+    /**
+     * A connection failed. Its calls in flight can't be answered any more so they fail, and it is reopened after a
+     * short delay. Calls not yet handed to a connection aren't affected
+     */
+    private void lost(ClientConnection connection, IOException cause){
+        Log.warn("Echo client connection to {} lost: {}", address, cause);
+        drop(connection, cause);
+        connection.reconnectAtNanos = System.nanoTime() + RECONNECT_DELAY_NANOS;
+    }
+
+    private void drop(ClientConnection connection, IOException cause){
+        connection.connected = false;
+        if(connection.key != null){
+            connection.key.cancel();
+        }
+        if(connection.socketChannel != null){
+            try{
+                connection.socketChannel.close();
+            }catch(IOException ie){
+                Log.debug("Error closing client connection: {}", ie);
+            }
+        }
+        ByteBuffer buffer;
+        while((buffer = connection.outbound.pollFirst()) != null){
+            bufferPool.release(buffer);
+        }
+        connection.in.clear();
+        for(CompletableFuture<byte[]> future : connection.inFlight.values()){
+            future.completeExceptionally(cause);
+        }
+        connection.inFlight.clear();
+    }
+
+    private void reconnectDue(){
+        long now = System.nanoTime();
+        for(ClientConnection connection : connections){
+            if(connection.reconnectAtNanos != 0 && now - connection.reconnectAtNanos >= 0){
+                try{
+                    connect(connection);
+                }catch(IOException ie){
+                    Log.warn("Echo client could not reconnect to {}: {}", address, ie);
+                    connection.reconnectAtNanos = now + RECONNECT_DELAY_NANOS;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails every call past its deadline, whether it is still waiting for a connection or already on one. The deadline
+     * is the same for every call, so both queues are in deadline order and only their heads need looking at. Calls
+     * answered in the meantime are dropped from the front as they are found
+     */
+    private void expireDue(long now){
+        Request request;
+        while((request = submitted.peek()) != null && request.deadlineNanos != 0 && now - request.deadlineNanos >= 0){
+            submitted.poll(); //Never got a connection
+            request.future.completeExceptionally(timedOut());
+        }
+
+        while((request = deadlines.peekFirst()) != null
+                && (request.future.isDone() || now - request.deadlineNanos >= 0)){
+            deadlines.pollFirst();
+            if(!request.future.isDone()){
+                request.connection.inFlight.remove(request.id); //A late echo is then just an unknown request
+                request.future.completeExceptionally(timedOut());
+            }
+        }
+    }
+
+    private SocketTimeoutException timedOut(){
+        return new SocketTimeoutException("No echo from " + address + " within "
+                + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+    }
+
+    /**
+     * How long select() may block. 0, forever, unless a lost connection is waiting to be reopened or a call has a
+     * deadline coming up
+     */
+    private long waitMillis(){
+        long now = System.nanoTime();
+        long wait = 0;
+        for(ClientConnection connection : connections){
+            if(connection.reconnectAtNanos != 0){
+                wait = sooner(wait, connection.reconnectAtNanos, now);
+            }
+        }
+        Request waiting = submitted.peek();
+        if(waiting != null && waiting.deadlineNanos != 0){
+            wait = sooner(wait, waiting.deadlineNanos, now);
+        }
+        Request oldest = deadlines.peekFirst();
+        if(oldest != null){
+            wait = sooner(wait, oldest.deadlineNanos, now);
+        }
+        return wait;
+    }
+
+    private static long sooner(long waitMillis, long dueNanos, long now){
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(dueNanos - now));
+        return waitMillis == 0 ? millis : Math.min(waitMillis, millis);
+    }
+
+    /**
+     * A call waiting to be handed to a connection
+     */
+    private static final class Request {
+        final long id;
+        final byte[] payload;
+        final CompletableFuture<byte[]> future;
+        final long deadlineNanos; //When the call fails if its echo isn't back, 0 for no deadline
+        ClientConnection connection; //Set once it is handed to one, so an expired call can be taken off it
+
+        Request(long id, byte[] payload, CompletableFuture<byte[]> future, long deadlineNanos){
+            this.id = id;
+            this.payload = payload;
+            this.future = future;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    /**
+     * One pooled connection. Outlives its socket, a lost connection gets a new one here
+     */
+    private final class ClientConnection {
+        SocketChannel socketChannel;
+        SelectionKey key;
+        boolean connected; //Finished connecting and not lost since
+        boolean dirty; //Has frames queued by this pass of assignSubmitted() that haven't been written yet
+        long reconnectAtNanos; //When to reopen after being lost, 0 when not waiting to
+        final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>(); //Frames waiting to be written, leased
+        final Map<Long, CompletableFuture<byte[]>> inFlight = new HashMap<Long, CompletableFuture<byte[]>>(); //By request id
+        ByteBuffer in = bufferPool.acquire(65536); //Echoes being read, write mode between reads
+    }
+}
@@ -0,0 +1,59 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: the chattyKathy side of the server. Rooms are spread over the workers, each worker
+ |keeps the members it owns, so publishing a message costs one hand off per worker with members
+ |in the room and the worker does the per member part on its own thread
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+public class Rooms {
+
+    private final EchoWorker[] workers; //Filled in by each worker as it is created, before any thread starts
+    private final EchoMetrics metrics;
+
+    public Rooms(int workers, EchoMetrics metrics){
+        this.workers = new EchoWorker[workers];
+        this.metrics = metrics;
+    }
+
+    void add(EchoWorker worker){
+        workers[worker.getId()] = worker;
+    }
+
+    /**
+     * Sends the broadcast to every member of its room. The publishing worker delivers to its own members right away,
+     * every other worker with members gets it queued and is woken up. The publisher's reference is given up here
+     *
+     * @param from the worker calling, on its own thread
+     */
+    public void publish(Broadcast broadcast, EchoWorker from){
+        metrics.broadcasts.increment();
+
+        for(EchoWorker worker : workers){
+            if(!worker.hasMembers(broadcast.getRoom())){
+                continue;
+            }
+            broadcast.retain(1);
+            if(worker == from){
+                worker.deliver(broadcast);
+            }else{
+                worker.post(broadcast);
+            }
+        }
+        broadcast.release();
+    }
+}
@@ -0,0 +1,149 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: watches one event loop's Selector for the epoll spin bug, where select() keeps coming
+ |back early with nothing selected and the loop burns a core, and for select() itself failing over
+ |and over. Past a threshold the loop swaps its Selector for a fresh one with the same registrations
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Only failures of select() count toward a rebuild, not everything else the loop does
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.TimeUnit;
+
+public class SelectorGuard {
+
+    private final String owner; //Which loop this is, for the log
+    private final EchoMetrics metrics;
+    private final int spinThreshold; //Premature empty wakeups in a row before a rebuild, 0 never
+    private final int errorThreshold; //select() failures in a row before a rebuild, 0 never
+    private int spins; //Premature empty wakeups since the last one that did anything
+    private int errors; //select() failures since the last one that worked
+
+    public SelectorGuard(String owner, EchoConfig config, EchoMetrics metrics){
+        this.owner = owner;
+        this.metrics = metrics;
+        this.spinThreshold = config.getSelectorSpinThreshold();
+        this.errorThreshold = config.getSelectorErrorThreshold();
+    }
+
+    /**
+     * Called after every select(). A wakeup is only suspect when nothing at all came of it: no keys, nothing handed
+     * over, no timer fired and the timeout hadn't run out. wakeup() calls look the same from here, so the loop counts
+     * whatever work they brought in as work
+     *
+     * @param work         keys selected plus anything else the pass found to do
+     * @param startNanos   System.nanoTime() just before select()
+     * @param timeoutMillis what select() was given, 0 for no timeout
+     * @return true if the Selector should be rebuilt
+     */
+    public boolean selected(int work, long startNanos, long timeoutMillis){
+        if(work > 0 || (timeoutMillis > 0
+                && System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis))){
+            spins = 0;
+            return false;
+        }
+        if(spinThreshold > 0 && ++spins >= spinThreshold){
+            Log.warn("{} Selector returned empty {} times in a row, rebuilding it", owner, spins);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called after every select() that returned normally
+     */
+    public void passed(){
+        errors = 0;
+    }
+
+    /**
+     * Called when select() itself throws. Nothing else the loop does should come here, a connection failing or the
+     * process running out of file descriptors says nothing about the Selector and a new one wouldn't help. The first
+     * failure of a run is logged in full, the rest are only counted so a Selector failing every time doesn't flood
+     * the log
+     *
+     * @return true if the Selector should be rebuilt
+     */
+    public boolean failed(IOException e){
+        errors++;
+        if(errors == 1){
+            Log.error(owner + " select() failed", e);
+        }
+        if(errorThreshold > 0 && errors >= errorThreshold){
+            Log.warn("{} select() failed {} times in a row, rebuilding its Selector", owner, errors);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens a fresh Selector, moves every valid registration across with its interest ops and attachment, and
+     * closes the old one. Must be called on the loop's own thread, the only one that selects on it. A channel that
+     * can't be moved is closed. Attachments that hold on to their key are told about the new one
+     *
+     * @return the new Selector, which the loop uses from here on
+     */
+    public Selector rebuild(Selector old) throws IOException{
+        Selector fresh = SelectorProvider.provider().openSelector();
+        int moved = 0;
+
+        for(SelectionKey key : old.keys()){
+            SelectableChannel channel = key.channel();
+            Object attachment = key.attachment();
+            try{
+                if(!key.isValid() || channel.keyFor(fresh) != null){
+                    continue;
+                }
+                int ops = key.interestOps();
+                key.cancel();
+                SelectionKey newKey = channel.register(fresh, ops, attachment);
+                if(attachment instanceof EchoConnection){
+                    ((EchoConnection) attachment).rekey(newKey);
+                }
+                moved++;
+            }catch(Exception e){
+                Log.warn("{} could not move a channel to the new Selector: {}", owner, e);
+                if(attachment instanceof EchoConnection){
+                    ((EchoConnection) attachment).close();
+                }else if(attachment instanceof DatagramEcho){
+                    ((DatagramEcho) attachment).close();
+                }else{
+                    try{
+                        channel.close();
+                    }catch(IOException ignored){
+                    }
+                }
+            }
+        }
+
+        try{
+            old.close();
+        }catch(IOException ie){
+            Log.warn("Error closing the old Selector", ie);
+        }
+
+        spins = 0;
+        errors = 0;
+        metrics.selectorRebuilds.increment();
+        Log.info("{} Selector rebuilt with {} channels", owner, moved);
+        return fresh;
+    }
+}
@@ -0,0 +1,40 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: a BufferPool that several threads may lease from and release to. The async transport
+ |finishes a connection's operations on whichever group thread is free, so its pools can't have an
+ |owning thread. Connections are spread over a few of these, which keeps the lock mostly uncontended
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.nio.ByteBuffer;
+
+public class SharedBufferPool extends BufferPool {
+
+    public SharedBufferPool(long maxBytes){
+        super(maxBytes);
+    }
+
+    @Override
+    public synchronized ByteBuffer acquire(int minCapacity){
+        return super.acquire(minCapacity);
+    }
+
+    @Override
+    public synchronized void release(ByteBuffer buffer){
+        super.release(buffer);
+    }
+}
@@ -0,0 +1,210 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: a hashed timing wheel. Time is cut into ticks and each tick hashes to one slot of a
+ |fixed ring, where timeouts due in that tick wait on an intrusive linked list. Scheduling and
+ |cancelling are a link and an unlink, and advancing only looks at the slots of the ticks that went
+ |by. Deadlines further out than one turn of the wheel share slots and simply wait for a later lap.
+ |Driven by whoever owns it, there are no timer threads. Not thread safe
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.util.concurrent.TimeUnit;
+
+public class TimingWheel {
+
+    /**
+     * What to do when a timeout comes due. Called from advance() on the owning thread, which may schedule the same
+     * timeout again
+     */
+    public interface Task {
+        void expired(long nowNanos);
+    }
+
+    /**
+     * One schedulable timeout. Created once per owner and scheduled over and over, so nothing is allocated per
+     * schedule
+     */
+    public static final class Timeout {
+        private final Task task;
+        private long deadlineTick; //Tick this is due in
+        private long deadlineNanos; //What the caller asked for, for getDeadlineNanos()
+        private int slot = -1; //Slot it is linked into, -1 when not scheduled
+        private Timeout prev;
+        private Timeout next;
+
+        Timeout(Task task){
+            this.task = task;
+        }
+
+        public boolean isScheduled(){
+            return slot >= 0;
+        }
+
+        /**
+         * The deadline this was last scheduled for
+         */
+        public long getDeadlineNanos(){
+            return deadlineNanos;
+        }
+    }
+
+    private final long tickNanos; //Length of one tick, the wheel's resolution
+    private final Timeout[] slots; //Head of each slot's list
+    private final int mask; //slots.length - 1, the length is a power of two
+    private final long originNanos; //System.nanoTime() that tick 0 started at
+    private long currentTick; //Last tick advance() has dealt with
+    private long nowNanos; //Time passed to the last advance(), a cheap clock for the owner's bookkeeping
+    private int size; //Timeouts scheduled
+
+    /**
+     * @param tickMillis resolution. A timeout fires up to one tick late, never early
+     * @param wheelSize slots in the ring, rounded up to a power of two. One turn is tickMillis * wheelSize
+     */
+    public TimingWheel(long tickMillis, int wheelSize){
+        if(tickMillis < 1 || wheelSize < 1){
+            throw new IllegalArgumentException("tickMillis and wheelSize must be at least 1 but were "
+                    + tickMillis + " and " + wheelSize);
+        }
+        int length = Integer.highestOneBit(wheelSize);
+        if(length < wheelSize){
+            length <<= 1;
+        }
+
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.slots = new Timeout[length];
+        this.mask = length - 1;
+        this.originNanos = System.nanoTime();
+        this.nowNanos = originNanos;
+    }
+
+    public Timeout newTimeout(Task task){
+        return new Timeout(task);
+    }
+
+    /**
+     * Schedules the timeout for the given System.nanoTime(), moving it if it was already scheduled. A deadline that
+     * has already gone by fires on the next tick
+     */
+    public void schedule(Timeout timeout, long deadlineNanos){
+        if(timeout.isScheduled()){
+            unlink(timeout);
+        }
+
+        long tick = (deadlineNanos - originNanos + tickNanos - 1) / tickNanos; //Rounded up so nothing fires early
+        if(tick <= currentTick){
+            tick = currentTick + 1;
+        }
+        timeout.deadlineTick = tick;
+        timeout.deadlineNanos = deadlineNanos;
+
+        int slot = (int) (tick & mask);
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = slots[slot];
+        if(slots[slot] != null){
+            slots[slot].prev = timeout;
+        }
+        slots[slot] = timeout;
+        size++;
+    }
+
+    public void cancel(Timeout timeout){
+        if(timeout.isScheduled()){
+            unlink(timeout);
+        }
+    }
+
+    private void unlink(Timeout timeout){
+        if(timeout.prev != null){
+            timeout.prev.next = timeout.next;
+        }else{
+            slots[timeout.slot] = timeout.next;
+        }
+        if(timeout.next != null){
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+        size--;
+    }
+
+    /**
+     * Fires every timeout due by now. Only the slots of the ticks that passed since the last call are looked at, all of
+     * them at most once. Timeouts are unlinked before any task runs so a task can freely reschedule or cancel
+     *
+     * @return how many timeouts fired
+     */
+    public int advance(long nowNanos){
+        this.nowNanos = nowNanos;
+        long targetTick = (nowNanos - originNanos) / tickNanos;
+        if(targetTick <= currentTick){
+            return 0;
+        }
+
+        Timeout expired = null; //Chained through next once unlinked
+        if(size > 0){
+            long steps = Math.min(targetTick - currentTick, slots.length);
+            for(long i = 1; i <= steps; i++){
+                Timeout timeout = slots[(int) ((currentTick + i) & mask)];
+                while(timeout != null){
+                    Timeout next = timeout.next;
+                    if(timeout.deadlineTick <= targetTick){
+                        unlink(timeout);
+                        timeout.next = expired;
+                        expired = timeout;
+                    }
+                    timeout = next;
+                }
+            }
+        }
+        currentTick = targetTick;
+
+        int fired = 0;
+        while(expired != null){
+            Timeout timeout = expired;
+            expired = timeout.next;
+            timeout.next = null;
+            timeout.task.expired(nowNanos);
+            fired++;
+        }
+        return fired;
+    }
+
+    /**
+     * How long the owner can block before advance() would have something to do, for a select() timeout. 0 means no
+     * timeouts are scheduled and there is no need to wake up
+     */
+    public long millisUntilNextTick(long nowNanos){
+        if(size == 0){
+            return 0;
+        }
+        long nextTickNanos = originNanos + (currentTick + 1) * tickNanos;
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextTickNanos - nowNanos + 999999));
+    }
+
+    /**
+     * The time passed to the last advance(). Good enough to stamp activity with when ticks are tens of milliseconds
+     */
+    public long now(){
+        return nowNanos;
+    }
+
+    public int size(){
+        return size;
+    }
+}
@@ -0,0 +1,171 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: records what clients send to one worker, every read with when it happened and which
+ |connection it came from, into append only memory mapped segment files. Recording is a copy into
+ |mapped memory with no system call, the OS writes the pages out in the background. CaptureReader
+ |reads the segments back for the client's replay mode
+ |
+ | Segment layout, big endian:
+ |  header  int magic, int version, long wall clock millis, long nanoTime, int worker, int segment
+ |  record  int length, long connection id, long nanoTime, length bytes of payload
+ |A length of 0 is the end of what was written, -1 is the connection closing from either end
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - Segment names formatted with Locale.ROOT, close records cover every close
+ 1.2  - 10182026 - Segment failure logged with placeholders
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+public class TrafficCapture {
+
+    static final int MAGIC = 0x45434150; //"ECAP"
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = 32;
+    static final int RECORD_HEADER_BYTES = 20;
+    static final int CLOSED = -1; //Record length marking the connection closing, whichever end closed it
+
+    private final File directory; //This run's capture directory, shared by every worker
+    private final int workerId; //Part of every segment's file name so workers never share a file
+    private final int segmentBytes;
+    private final int maxSegments;
+    private FileChannel channel; //The current segment's file
+    private MappedByteBuffer segment; //The current segment, positioned where the next record goes
+    private int segments; //Segments opened so far
+    private boolean stopped; //Out of segments or the disk failed, nothing more is recorded
+    private long records;
+    private long bytes;
+
+    /**
+     * Only the owning worker's thread may record. Opens the first segment straight away so a bad directory is found at
+     * startup and not on the first read
+     */
+    public TrafficCapture(File directory, int workerId, EchoConfig config) throws IOException{
+        this.directory = directory;
+        this.workerId = workerId;
+        this.segmentBytes = config.getCaptureSegmentBytes();
+        this.maxSegments = Math.max(1, config.getCaptureMaxSegments());
+        openSegment();
+    }
+
+    static File segmentFile(File directory, int workerId, int segment){
+        return new File(directory, String.format(Locale.ROOT, "w%d-%05d.seg", workerId, segment));
+    }
+
+    /**
+     * Records one read. The payload's position is left where it was
+     */
+    public void record(long connectionId, long nanos, ByteBuffer payload){
+        append(connectionId, nanos, payload, payload.remaining());
+    }
+
+    /**
+     * Records a connection closing. EchoConnection calls this from its close path, so every close is recorded once
+     * whatever caused it
+     */
+    public void recordClose(long connectionId, long nanos){
+        append(connectionId, nanos, null, CLOSED);
+    }
+
+    private void append(long connectionId, long nanos, ByteBuffer payload, int length){
+        if(stopped){
+            return;
+        }
+        int payloadBytes = Math.max(0, length);
+        if(segment.remaining() < RECORD_HEADER_BYTES + payloadBytes && !roll()){
+            return;
+        }
+
+        int start = segment.position();
+        segment.putLong(start + 4, connectionId);
+        segment.putLong(start + 12, nanos);
+        if(payload != null){
+            int position = payload.position();
+            segment.position(start + RECORD_HEADER_BYTES);
+            segment.put(payload);
+            payload.position(position);
+        }
+        segment.putInt(start, length); //Last, so a reader never finds a length whose record isn't all there
+        segment.position(start + RECORD_HEADER_BYTES + payloadBytes);
+
+        records++;
+        bytes += payloadBytes;
+    }
+
+    /**
+     * Moves on to a new segment. The full one isn't forced to disk here, that would stall the event loop on I/O, the
+     * OS writes its pages out on its own
+     */
+    private boolean roll(){
+        if(segments >= maxSegments){
+            stopped = true;
+            Log.warn("Worker {} capture is full after {} segments, no longer recording", workerId, segments);
+            return false;
+        }
+        try{
+            openSegment();
+            return true;
+        }catch(IOException ie){
+            stopped = true;
+            Log.error("Worker {} could not open a capture segment, no longer recording: {}", workerId, ie);
+            return false;
+        }
+    }
+
+    private void openSegment() throws IOException{
+        closeChannel();
+        File file = segmentFile(directory, workerId, segments);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes); //Sparse, untouched pages take no disk
+        segment.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putLong(System.nanoTime())
+                .putInt(workerId).putInt(segments);
+        segments++;
+    }
+
+    /**
+     * The mapping stays valid after its channel is closed and is released when the buffer is collected
+     */
+    private void closeChannel(){
+        if(channel == null){
+            return;
+        }
+        try{
+            channel.close();
+        }catch(IOException ie){
+            Log.warn("Error closing a capture segment", ie);
+        }
+        channel = null;
+    }
+
+    /**
+     * Flushes the current segment to disk and stops recording. Called by the worker on its way out
+     */
+    public void close(){
+        if(segment != null){
+            segment.force();
+        }
+        closeChannel();
+        stopped = true;
+        Log.info("Worker {} captured {} reads, {} bytes", workerId, records, bytes);
+    }
+}
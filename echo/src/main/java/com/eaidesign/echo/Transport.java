@@ -0,0 +1,54 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: the ways the Echo Server can serve its connections, chosen with -Decho.transport
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+ 1.1  - 10182026 - ASYNC, completion handlers on an AsynchronousChannelGroup
+ 1.2  - 10182026 - Warns that broadcast mode is selector only
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import java.net.InetAddress;
+
+public enum Transport {
+
+    SELECTOR, //An acceptor and N EchoWorker event loops, every socket non-blocking(EchoServer)
+    BLOCKING, //Blocking sockets with a thread per connection, virtual where available(BlockingEchoServer)
+    ASYNC;    //NIO.2 completion handlers run by a fixed size channel group(AsyncEchoServer)
+
+    /**
+     * Accepts the names in any case, as used by -Decho.transport
+     */
+    public static Transport parse(String name){
+        return Transport.valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * Creates a server of this kind, bound and ready for its run() to be started on a thread
+     */
+    public EchoTransport newServer(InetAddress hostAddress, int port, EchoConfig config) throws Exception{
+        if(config.isBroadcast() && this != SELECTOR){
+            Log.warn("Broadcast mode needs the selector transport, the {} transport only echoes", this);
+        }
+        switch(this){
+            case BLOCKING:
+                return new BlockingEchoServer(hostAddress, port, config);
+            case ASYNC:
+                return new AsyncEchoServer(hostAddress, port, config);
+            default:
+                return new EchoServer(hostAddress, port, config);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: checks the frame headers at the edges of each encoding. VARINT lengths either side of
+ |every 7 bit boundary up to Integer.MAX_VALUE, headers cut short, which must leave the position
+ |alone, and headers that can't be a valid length
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class FramingTest {
+
+    //Either side of every point where a varint grows a byte
+    private static final int[] BOUNDARIES = {0, 1, 127, 128, 16383, 16384, 2097151, 2097152, 268435455, 268435456,
+            Integer.MAX_VALUE};
+
+    @Test
+    public void varintHeaderLengthGrowsEverySevenBits(){
+        int[] expected = {1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5};
+        for(int i = 0; i < BOUNDARIES.length; i++){
+            assertEquals("header length of " + BOUNDARIES[i], expected[i], Framing.VARINT.headerLength(BOUNDARIES[i]));
+        }
+    }
+
+    @Test
+    public void varintRoundTripsAtEveryBoundary() throws ProtocolException{
+        for(int length : BOUNDARIES){
+            roundTrip(Framing.VARINT, length);
+        }
+    }
+
+    @Test
+    public void fixedRoundTripsZeroAndMax() throws ProtocolException{
+        assertEquals(4, Framing.FIXED.headerLength(0));
+        roundTrip(Framing.FIXED, 0);
+        roundTrip(Framing.FIXED, 128);
+        roundTrip(Framing.FIXED, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void varintKnownEncodings(){
+        assertBytes(Framing.VARINT, 0, 0x00);
+        assertBytes(Framing.VARINT, 127, 0x7F);
+        assertBytes(Framing.VARINT, 128, 0x80, 0x01);
+        assertBytes(Framing.VARINT, Integer.MAX_VALUE, 0xFF, 0xFF, 0xFF, 0xFF, 0x07);
+    }
+
+    @Test
+    public void truncatedVarintLeavesThePositionAlone() throws ProtocolException{
+        for(int length : BOUNDARIES){
+            ByteBuffer header = header(Framing.VARINT, length);
+            for(int available = 0; available < header.remaining(); available++){
+                ByteBuffer in = partial(header, available);
+                assertEquals("length " + length + " with " + available + " bytes", -1, Framing.VARINT.readHeader(in));
+                assertEquals(1, in.position()); //Past the leading byte partial() puts in front
+            }
+        }
+    }
+
+    @Test
+    public void truncatedFixedLeavesThePositionAlone() throws ProtocolException{
+        ByteBuffer header = header(Framing.FIXED, 128);
+        for(int available = 0; available < 4; available++){
+            ByteBuffer in = partial(header, available);
+            assertEquals(-1, Framing.FIXED.readHeader(in));
+            assertEquals(1, in.position());
+        }
+    }
+
+    @Test
+    public void varintPastAnIntIsRejected(){
+        //Five bytes, the last with more than the 3 bits an int has left
+        assertRejected(Framing.VARINT, 0xFF, 0xFF, 0xFF, 0xFF, 0x08);
+        assertRejected(Framing.VARINT, 0x80, 0x80, 0x80, 0x80, 0x10);
+        //Continuation bit still set on the fifth byte
+        assertRejected(Framing.VARINT, 0x80, 0x80, 0x80, 0x80, 0x80, 0x00);
+    }
+
+    @Test
+    public void negativeFixedLengthIsRejected(){
+        assertRejected(Framing.FIXED, 0x80, 0x00, 0x00, 0x00);
+        assertRejected(Framing.FIXED, 0xFF, 0xFF, 0xFF, 0xFF);
+    }
+
+    @Test
+    public void twoHeadersBackToBack() throws ProtocolException{
+        ByteBuffer in = ByteBuffer.allocate(16);
+        Framing.VARINT.putHeader(in, 128);
+        Framing.VARINT.putHeader(in, 0);
+        in.flip();
+        assertEquals(128, Framing.VARINT.readHeader(in));
+        assertEquals(0, Framing.VARINT.readHeader(in));
+        assertEquals(-1, Framing.VARINT.readHeader(in));
+    }
+
+    @Test
+    public void parseIgnoresCaseAndSpace(){
+        assertEquals(Framing.VARINT, Framing.parse(" varint "));
+        assertEquals(Framing.FIXED, Framing.parse("Fixed"));
+        assertEquals(Framing.NONE, Framing.parse("NONE"));
+        assertEquals(0, Framing.NONE.headerLength(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noneHasNoHeaderToRead() throws ProtocolException{
+        Framing.NONE.readHeader(ByteBuffer.allocate(4));
+    }
+
+    private static void roundTrip(Framing framing, int length) throws ProtocolException{
+        ByteBuffer in = header(framing, length);
+        assertEquals("header bytes for " + length, framing.headerLength(length), in.remaining());
+        assertEquals(length, framing.readHeader(in));
+        assertEquals("position after " + length, 0, in.remaining());
+    }
+
+    private static ByteBuffer header(Framing framing, int length){
+        ByteBuffer out = ByteBuffer.allocate(framing.getMaxHeaderBytes());
+        framing.putHeader(out, length);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * The first bytes of a header behind one unrelated byte, positioned at the header, so a reader that moves or
+     * reads from the start of the buffer shows up
+     */
+    private static ByteBuffer partial(ByteBuffer header, int available){
+        ByteBuffer in = ByteBuffer.allocate(1 + available);
+        in.put((byte) 0x55);
+        ByteBuffer part = header.duplicate();
+        part.limit(available);
+        in.put(part);
+        in.flip();
+        in.position(1);
+        return in;
+    }
+
+    private static void assertBytes(Framing framing, int length, int... expected){
+        ByteBuffer out = header(framing, length);
+        assertEquals(expected.length, out.remaining());
+        for(int b : expected){
+            assertEquals((byte) b, out.get());
+        }
+    }
+
+    private static void assertRejected(Framing framing, int... bytes){
+        ByteBuffer in = ByteBuffer.allocate(bytes.length);
+        for(int b : bytes){
+            in.put((byte) b);
+        }
+        in.flip();
+        try{
+            framing.readHeader(in);
+            fail("Expected a ProtocolException");
+        }catch(ProtocolException expected){
+        }
+    }
+}
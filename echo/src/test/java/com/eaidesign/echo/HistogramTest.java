@@ -0,0 +1,141 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: checks the Histogram's bucket indexing where it changes, at each power of two, and
+ |that percentiles, clamping and merging come out to the histogram's stated precision
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+
+    @Test
+    public void smallValuesAreTheirOwnBucket(){
+        for(long value = 0; value < 2048; value++){
+            assertEquals(value, Histogram.indexFor(value));
+            assertEquals(value, Histogram.highestValueAt((int) value));
+        }
+        assertEquals(2048, Histogram.indexFor(2048));
+        assertEquals(2048, Histogram.indexFor(2049)); //First range with two values per bucket
+        assertEquals(2049, Histogram.indexFor(2050));
+    }
+
+    @Test
+    public void bucketsAreContiguousAcrossEveryPowerOfTwo(){
+        for(int bit = 11; bit < 42; bit++){
+            long power = 1L << bit;
+            for(long value = power - 2; value <= power + 2; value++){
+                assertInItsBucket(value);
+            }
+        }
+        assertInItsBucket(HOUR);
+    }
+
+    @Test
+    public void indexNeverGoesBackwards(){
+        int previous = -1;
+        for(long value = 0; value < 1 << 20; value += 7){
+            int index = Histogram.indexFor(value);
+            assertTrue("index of " + value, index >= previous);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void valuesComeBackWithinPrecision(){
+        for(long value = 2048; value < HOUR; value = value * 3 + 1){
+            Histogram histogram = new Histogram(HOUR);
+            histogram.recordValue(value);
+            long reported = histogram.getValueAtPercentile(50.0);
+            assertTrue(value + " came back as " + reported, reported <= value && value - reported <= value / 1024);
+        }
+    }
+
+    @Test
+    public void percentilesOfAnEvenSpread(){
+        Histogram histogram = new Histogram(HOUR);
+        for(long value = 1; value <= 1000; value++){
+            histogram.recordValue(value);
+        }
+        assertEquals(1000, histogram.getTotalCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 1e-9);
+        assertEquals(500, histogram.getValueAtPercentile(50.0));
+        assertEquals(990, histogram.getValueAtPercentile(99.0));
+        assertEquals(1000, histogram.getValueAtPercentile(100.0));
+        assertEquals(1, histogram.getValueAtPercentile(0.0));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped(){
+        Histogram histogram = new Histogram(HOUR);
+        histogram.recordValue(-5);
+        histogram.recordValue(HOUR * 2);
+        assertEquals(0, histogram.getMin());
+        assertEquals(HOUR, histogram.getMax());
+        assertEquals(HOUR, histogram.getValueAtPercentile(100.0));
+    }
+
+    @Test
+    public void emptyReportsZero(){
+        Histogram histogram = new Histogram(HOUR);
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        assertEquals(0, histogram.getValueAtPercentile(99.0));
+    }
+
+    @Test
+    public void addMergesCounts(){
+        Histogram a = new Histogram(HOUR);
+        Histogram b = new Histogram(HOUR);
+        a.recordValue(10);
+        b.recordValueWithCount(20, 3);
+        a.add(b);
+        assertEquals(4, a.getTotalCount());
+        assertEquals(10, a.getMin());
+        assertEquals(20, a.getMax());
+        assertEquals(20, a.getValueAtPercentile(50.0));
+
+        a.reset();
+        assertEquals(0, a.getTotalCount());
+        assertEquals(0, a.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangesMustMatchToAdd(){
+        new Histogram(HOUR).add(new Histogram(TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    /**
+     * The value's bucket reaches at least up to it, and the bucket before ends below it
+     */
+    private static void assertInItsBucket(long value){
+        int index = Histogram.indexFor(value);
+        assertTrue(value + " above its bucket", Histogram.highestValueAt(index) >= value);
+        if(index > 0){
+            assertTrue(value + " also fits the bucket before", Histogram.highestValueAt(index - 1) < value);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**------------------------------------------------------------------------------
+ | Author : Dontae Malone
+ | Company: EAI Design Services LLC
+ | Project: Simple Multiplexing TCP/IP Echo application
+ | Copyright (c) 2015 EAI Design Services LLC
+ ------------------------------------------------------------------------------ */
+/**---------------------------------------------------------------------------------------------
+ | Classification: UNCLASSIFIED
+ |
+ | Abstract: drives a TimingWheel with made up times. Timeouts must never fire early, must fire
+ |in the right round when their deadline is a whole number of turns away, and must survive being
+ |cancelled, moved or rescheduled from their own task
+ |
+ \---------------------------------------------------------------------------------------------*/
+/**---------------------------------------------------------------------------------------------
+ VERSION HISTORY:
+ 1.0  - 10182026 - Initial Creation
+
+ \---------------------------------------------------------------------------------------------**/
+
+package com.eaidesign.echo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SIZE = 8;
+
+    private TimingWheel wheel;
+    private long origin; //Start of tick 0, all times below are offsets from it
+
+    @Before
+    public void setUp(){
+        wheel = new TimingWheel(10, WHEEL_SIZE);
+        origin = wheel.now(); //Until the first advance() that is the wheel's own origin
+    }
+
+    @Test
+    public void firesOnItsTickAndNotBefore(){
+        Counter counter = new Counter();
+        TimingWheel.Timeout timeout = wheel.newTimeout(counter);
+        wheel.schedule(timeout, origin + 3 * TICK);
+
+        assertEquals(0, wheel.advance(origin + 3 * TICK - 1));
+        assertTrue(timeout.isScheduled());
+        assertEquals(1, wheel.advance(origin + 3 * TICK));
+        assertEquals(1, counter.fired);
+        assertFalse(timeout.isScheduled());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void deadlineInsideATickRoundsUp(){
+        Counter counter = new Counter();
+        wheel.schedule(wheel.newTimeout(counter), origin + 2 * TICK + 1);
+
+        assertEquals(0, wheel.advance(origin + 2 * TICK + 1)); //Still tick 2, which started before the deadline
+        assertEquals(1, wheel.advance(origin + 3 * TICK));
+    }
+
+    @Test
+    public void deadlineAtAWholeTurnWaitsForItsRound(){
+        Counter counter = new Counter();
+        TimingWheel.Timeout oneTurn = wheel.newTimeout(counter);
+        TimingWheel.Timeout twoTurns = wheel.newTimeout(counter);
+        wheel.schedule(oneTurn, origin + WHEEL_SIZE * TICK); //Same slot as tick 0
+        wheel.schedule(twoTurns, origin + 2 * WHEEL_SIZE * TICK);
+
+        for(int tick = 1; tick < WHEEL_SIZE; tick++){
+            assertEquals("tick " + tick, 0, wheel.advance(origin + tick * TICK));
+        }
+        assertEquals(1, wheel.advance(origin + WHEEL_SIZE * TICK));
+        assertFalse(oneTurn.isScheduled());
+        assertTrue(twoTurns.isScheduled());
+
+        for(int tick = WHEEL_SIZE + 1; tick < 2 * WHEEL_SIZE; tick++){
+            assertEquals("tick " + tick, 0, wheel.advance(origin + tick * TICK));
+        }
+        assertEquals(1, wheel.advance(origin + 2 * WHEEL_SIZE * TICK));
+        assertEquals(2, counter.fired);
+    }
+
+    @Test
+    public void jumpPastSeveralTurnsFiresEverythingDue(){
+        Counter counter = new Counter();
+        wheel.schedule(wheel.newTimeout(counter), origin + 3 * TICK);
+        wheel.schedule(wheel.newTimeout(counter), origin + 2 * WHEEL_SIZE * TICK + 5 * TICK);
+        TimingWheel.Timeout later = wheel.newTimeout(counter);
+        wheel.schedule(later, origin + 5 * WHEEL_SIZE * TICK);
+
+        assertEquals(2, wheel.advance(origin + 4 * WHEEL_SIZE * TICK));
+        assertTrue(later.isScheduled());
+        assertEquals(1, wheel.advance(origin + 5 * WHEEL_SIZE * TICK));
+    }
+
+    @Test
+    public void pastDeadlineFiresOnTheNextTick(){
+        wheel.advance(origin + 5 * TICK);
+        Counter counter = new Counter();
+        wheel.schedule(wheel.newTimeout(counter), origin + TICK);
+
+        assertEquals(0, wheel.advance(origin + 5 * TICK + 1));
+        assertEquals(1, wheel.advance(origin + 6 * TICK));
+    }
+
+    @Test
+    public void cancelledNeverFires(){
+        Counter counter = new Counter();
+        TimingWheel.Timeout first = wheel.newTimeout(counter);
+        TimingWheel.Timeout second = wheel.newTimeout(counter);
+        wheel.schedule(first, origin + 2 * TICK);
+        wheel.schedule(second, origin + 2 * TICK); //Same slot, so cancelling unlinks from the middle of a list
+
+        wheel.cancel(first);
+        wheel.cancel(first); //Twice is harmless
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(origin + 2 * TICK));
+        assertFalse(second.isScheduled());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void schedulingAgainMovesTheTimeout(){
+        Counter counter = new Counter();
+        TimingWheel.Timeout timeout = wheel.newTimeout(counter);
+        wheel.schedule(timeout, origin + 2 * TICK);
+        wheel.schedule(timeout, origin + 6 * TICK);
+
+        assertEquals(1, wheel.size());
+        assertEquals(origin + 6 * TICK, timeout.getDeadlineNanos());
+        assertEquals(0, wheel.advance(origin + 5 * TICK));
+        assertEquals(1, wheel.advance(origin + 6 * TICK));
+    }
+
+    @Test
+    public void taskCanRescheduleItself(){
+        final int[] fired = new int[1];
+        final TimingWheel.Timeout[] self = new TimingWheel.Timeout[1];
+        self[0] = wheel.newTimeout(new TimingWheel.Task(){
+            public void expired(long nowNanos){
+                if(++fired[0] < 3){
+                    wheel.schedule(self[0], nowNanos + WHEEL_SIZE * TICK);
+                }
+            }
+        });
+        wheel.schedule(self[0], origin + TICK);
+
+        assertEquals(1, wheel.advance(origin + TICK));
+        assertEquals(1, wheel.advance(origin + (1 + WHEEL_SIZE) * TICK));
+        assertEquals(1, wheel.advance(origin + (1 + 2 * WHEEL_SIZE) * TICK));
+        assertEquals(3, fired[0]);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void selectTimeoutFollowsTheNextTick(){
+        assertEquals(0, wheel.millisUntilNextTick(origin)); //Nothing scheduled, no need to wake
+        wheel.schedule(wheel.newTimeout(new Counter()), origin + 5 * TICK);
+        assertEquals(10, wheel.millisUntilNextTick(origin));
+        assertEquals(1, wheel.millisUntilNextTick(origin + TICK - 1)); //Never 0 while something is scheduled
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroTickIsRejected(){
+        new TimingWheel(0, WHEEL_SIZE);
+    }
+
+    private static final class Counter implements TimingWheel.Task {
+        int fired;
+
+        public void expired(long nowNanos){
+            fired++;
+        }
+    }
+}